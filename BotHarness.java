@@ -0,0 +1,289 @@
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+
+/*
+    plays many seeded games at once without a window, each steered by a bot
+    instead of the mouse, to see how the settings of the world change how
+    long a game lasts and what it scores. the games of a sweep run on the
+    common fork-join pool and share nothing, so it scales with the cores.
+
+    every combination of the parameters plays the same list of seeds, so two
+    settings are compared on the same worlds rather than on different luck.
+    a game ends when its lives run out or after --max-ticks ticks.
+
+    usage: java -Djava.awt.headless=true BotHarness [options]
+        --pairs 6,8           pairs of blocks in the world
+        --gap 100,80          passing gap between a top and a bottom block
+        --min-height 100      minimum height of a block
+        --block-width 60      width of the blocks
+        --lives 3             lives of a game
+        --drift               the gap wanders rather than jumps
+        --ramp 8,4            the gap narrows a pixel every this many pairs
+        --ups 60,30           ticks a second, the blocks move further each
+                              tick at lower rates
+        --swept               test the whole ball over its motion since the
+                              last tick. always on below 60 ticks a second
+        --bot seeker          idle, seeker, seeker:<max speed> or random
+        --games 1000          games per combination
+        --max-ticks 100000    ticks a game is cut off at
+        --seed 1              seed the seeds of the games come from
+        --from file           fork every game off the checkpoint in the
+                              file instead, the world options are ignored
+        --scores file         log the result of every game in a HighScores
+                              leaderboard
+        --events dir          journal the events of every game, see
+                              EventJournal
+*/
+
+public final class BotHarness {
+
+    // steers the player of one game, in place of the mouse. returns the
+    // pointer position for the tick, packed by PlayerInput.pack, or
+    // PlayerInput.NONE to leave the player where it is
+    interface BotPolicy {
+        long steer(GameHelper world, long tick);
+    }
+
+    // a new bot of the given kind for a game played with the given seed
+    static BotPolicy bot(String kind, long seed) {
+        String[] parts = kind.split(":");
+        switch (parts[0]) {
+            case "idle": return (world, tick) -> PlayerInput.NONE;
+            case "seeker":
+                return new GapSeeker(parts.length > 1 ? Integer.parseInt(parts[1]) : 8);
+            case "random": return new RandomWalker(seed);
+            default: throw new IllegalArgumentException("Unknown bot " + kind);
+        }
+    }
+
+    // moves towards the middle of the next gap, at most maxStep pixels a
+    // tick like a hand on a mouse would
+    static final class GapSeeker implements BotPolicy {
+        private final int maxStep;
+
+        GapSeeker(int maxStep) {
+            this.maxStep = maxStep;
+        }
+
+        @Override
+        public long steer(GameHelper world, long tick) {
+            Player player = world.getPlayer();
+            int gap = world.gapAhead(player.getX());
+            if (gap < 0) return PlayerInput.NONE;
+            // the player is hit by its top left corner, so that goes in
+            // the middle of the gap. moveTo centres the ball on the pointer
+            int y = player.getY();
+            y += Math.max(-maxStep, Math.min(maxStep, gap - y));
+            return PlayerInput.pack(player.getX() + player.getWidth() / 2,
+                    y + player.getHeight() / 2);
+        }
+    }
+
+    // wanders up and down at random, a baseline the other bots should beat
+    static final class RandomWalker implements BotPolicy {
+        private final SplittableRandom random;
+
+        RandomWalker(long seed) {
+            this.random = new SplittableRandom(seed ^ 0x5DEECE66DL);
+        }
+
+        @Override
+        public long steer(GameHelper world, long tick) {
+            Player player = world.getPlayer();
+            return PlayerInput.pack(player.getX() + player.getWidth() / 2,
+                    player.getY() + player.getHeight() / 2 + random.nextInt(-12, 13));
+        }
+    }
+
+    // one combination of the world settings
+    static final class Params {
+        final int pairs, gap, minHeight, blockWidth, lives, ups, ramp;
+        final boolean swept, drift;
+
+        Params(int pairs, int gap, int minHeight, int blockWidth, int lives,
+                int ups, boolean swept, int ramp, boolean drift) {
+            this.pairs = pairs;
+            this.gap = gap;
+            this.minHeight = minHeight;
+            this.blockWidth = blockWidth;
+            this.lives = lives;
+            this.ups = ups;
+            this.swept = swept || ups < 60;
+            this.ramp = ramp;
+            this.drift = drift;
+        }
+
+        // the settings a checkpoint was made with
+        Params(GameConfig config) {
+            this(config.pairs, config.passingGap, config.minBlockHeight, config.blockWidth,
+                    config.lives, config.tickRate, config.sweptCollision, config.gapRamp,
+                    config.gapDrift);
+        }
+
+        GameConfig config(long seed) {
+            GameConfig config = new GameConfig();
+            config.pairs = pairs;
+            config.passingGap = gap;
+            config.minBlockHeight = minHeight;
+            config.blockWidth = blockWidth;
+            config.lives = lives;
+            config.seed = seed;
+            config.tickRate = ups;
+            config.sweptCollision = swept;
+            config.gapRamp = ramp;
+            config.gapDrift = drift;
+            return config;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        int[] pairs = { 6 }, gaps = { 100 }, minHeights = { 100 }, blockWidths = { 60 };
+        int[] rates = { 60 }, ramps = { 0 };
+        int lives = 3, games = 1000;
+        boolean swept = false, drift = false;
+        long maxTicks = 100_000, seed = 1;
+        String bot = "seeker";
+        Checkpoint from = null;
+        HighScores scores = null;
+        EventJournal events = null;
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--pairs": pairs = GameBench.ints(args[++i]); break;
+                case "--gap": gaps = GameBench.ints(args[++i]); break;
+                case "--min-height": minHeights = GameBench.ints(args[++i]); break;
+                case "--block-width": blockWidths = GameBench.ints(args[++i]); break;
+                case "--lives": lives = Integer.parseInt(args[++i]); break;
+                case "--ups": rates = GameBench.ints(args[++i]); break;
+                case "--swept": swept = true; break;
+                case "--drift": drift = true; break;
+                case "--ramp": ramps = GameBench.ints(args[++i]); break;
+                case "--bot": bot = args[++i]; break;
+                case "--games": games = Integer.parseInt(args[++i]); break;
+                case "--max-ticks": maxTicks = Long.parseLong(args[++i]); break;
+                case "--seed": seed = Long.parseLong(args[++i]); break;
+                case "--from":
+                    from = CheckpointFile.load(Paths.get(args[++i]));
+                    if (from == null) throw new IOException("No checkpoint in " + args[i]);
+                    break;
+                case "--scores": scores = new HighScores(Paths.get(args[++i])); break;
+                case "--events": events = new EventJournal(Paths.get(args[++i])); break;
+                default: throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+
+        // the same seeds for every combination
+        long[] seeds = new long[games];
+        SplittableRandom random = new SplittableRandom(seed);
+        for (int i = 0; i < games; i++) seeds[i] = random.nextLong();
+
+        List<Params> sweep = new ArrayList<>();
+        if (from != null) sweep.add(new Params(from.config));
+        else for (int p : pairs)
+            for (int g : gaps)
+                for (int h : minHeights)
+                    for (int w : blockWidths)
+                        for (int ups : rates)
+                            for (int ramp : ramps)
+                                sweep.add(new Params(p, g, h, w, lives, ups, swept,
+                                        ramp, drift));
+
+        System.out.printf("%d games of %s on %d threads%n", (long) games * sweep.size(),
+                bot, ForkJoinPool.getCommonPoolParallelism());
+        System.out.printf("%6s %5s %6s %6s %4s %5s %4s | %-40s | %s%n", "pairs", "gap",
+                "minH", "width", "ups", "swept", "ramp", "survived ticks mean p50 p90 p99 max", "score mean p50 p90 p99 max");
+        long start = System.nanoTime(), played = 0;
+        for (Params params : sweep) {
+            Result result = play(params, from, bot, seeds, maxTicks, events);
+            played += result.total;
+            System.out.printf(Locale.ROOT, "%6d %5d %6d %6d %4d %5s %4d | %-40s | %s%n",
+                    params.pairs, params.gap, params.minHeight, params.blockWidth,
+                    params.ups, params.swept, params.ramp,
+                    summary(result.ticks), summary(result.scores));
+            if (scores != null) {
+                for (int i = 0; i < seeds.length; i++) {
+                    long gameSeed = (from != null) ? from.config.seed : seeds[i];
+                    try {
+                        scores.add((int) result.scores[i], result.ticks[i], gameSeed);
+                    } catch (InterruptedException e) {
+                        throw new IOException("Interrupted logging the scores", e);
+                    }
+                }
+            }
+        }
+        if (events != null) {
+            events.close();
+            System.out.printf("%d events journaled, %d dropped%n", events.events(), events.dropped());
+        }
+        if (scores != null) {
+            scores.close();
+            System.out.printf("%d games logged, best score %d%n", scores.logged(), scores.best());
+        }
+        double secs = (System.nanoTime() - start) / 1e9;
+        System.out.printf(Locale.ROOT, "%d ticks in %.3f s (%.0f ticks/s)%n",
+                played, secs, played / secs);
+    }
+
+    // the outcome of every game of one combination
+    static final class Result {
+        final long[] ticks; // how long each game lasted
+        final long[] scores;
+        long total; // ticks played over all the games
+
+        Result(int games) {
+            ticks = new long[games];
+            scores = new long[games];
+        }
+    }
+
+    // plays a game for every seed, in parallel. the games are new ones, or
+    // all carry on from the same checkpoint when there is one
+    static Result play(Params params, Checkpoint from, String bot, long[] seeds, long maxTicks) {
+        return play(params, from, bot, seeds, maxTicks, null);
+    }
+
+    // the same, writing the events of every game to the journal if there is one
+    static Result play(Params params, Checkpoint from, String bot, long[] seeds, long maxTicks,
+            EventJournal events) {
+        Result result = new Result(seeds.length);
+        IntStream.range(0, seeds.length).parallel().forEach(i -> {
+            GameHelper world = (from != null) ? from.restore(ScoreBoard.NONE)
+                    : new GameHelper(params.config(seeds[i]), ScoreBoard.NONE);
+            EventJournal.Writer writer = (events != null) ? events.writer(1024) : null;
+            if (writer != null) world.journal(writer);
+            BotPolicy policy = bot(bot, seeds[i]);
+            HeadlessEngine engine = new HeadlessEngine(world,
+                    tick -> policy.steer(world, tick));
+            result.ticks[i] = engine.run(maxTicks);
+            result.scores[i] = world.getScore();
+            if (writer != null) writer.close();
+        });
+        for (long ticks : result.ticks) result.total += ticks;
+        return result;
+    }
+
+    static String summary(long[] values) {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        double mean = 0;
+        for (long value : sorted) mean += value;
+        mean /= Math.max(1, sorted.length);
+        return String.format(Locale.ROOT, "%.1f %d %d %d %d", mean, rank(sorted, 50),
+                rank(sorted, 90), rank(sorted, 99), rank(sorted, 100));
+    }
+
+    // the value below which the given percent of the sorted values fall
+    static long rank(long[] sorted, double percent) {
+        if (sorted.length == 0) return 0;
+        int i = (int) Math.ceil(sorted.length * percent / 100) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, i))];
+    }
+}
@@ -0,0 +1,230 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.CRC32;
+
+
+/*
+    a Checkpoint is a whole game frozen at some tick: the settings the world
+    was made with and everything GameHelper.save() writes. restore() makes
+    a new game carry on from there, as many times as wanted, so bots can
+    fork games off a common point and a kiosk can resume after a power cut.
+
+    payload layout (big endian):
+        width height blockWidth pairs minBlockHeight passingGap lives seed
+        tickRate sweptCollision gapDrift gapRamp minPassingGap
+        tick
+        the world, see GameHelper.save()
+*/
+
+final class Checkpoint {
+
+    static final int VERSION = 1;
+
+    final GameConfig config;
+    final long tick; // ticks the game had run
+    private final ByteBuffer world; // what GameHelper.save() wrote
+
+    private Checkpoint(GameConfig config, long tick, ByteBuffer world) {
+        this.config = config;
+        this.tick = tick;
+        this.world = world;
+    }
+
+    // the game as it is now, kept in memory
+    static Checkpoint capture(GameHelper helper, long tick) {
+        ByteBuffer buffer = ByteBuffer.allocate(size(helper.config()));
+        encode(helper, tick, buffer);
+        buffer.flip();
+        return decode(buffer);
+    }
+
+    // a new game that carries on from the checkpoint
+    GameHelper restore(ScoreBoard board) {
+        GameHelper helper = new GameHelper(config, board);
+        helper.restore(world.duplicate());
+        return helper;
+    }
+
+    // bytes encode() writes for a game of the given settings
+    static int size(GameConfig config) {
+        return 7 * 4 + 8 + 4 + 1 + 1 + 4 + 4 + 8 + GameHelper.savedSize(config);
+    }
+
+    // writes the game into the buffer, from its position on. nothing is
+    // allocated, so it can be done on the game thread between ticks
+    static void encode(GameHelper helper, long tick, ByteBuffer out) {
+        GameConfig config = helper.config();
+        out.putInt(config.width).putInt(config.height);
+        out.putInt(config.blockWidth).putInt(config.pairs);
+        out.putInt(config.minBlockHeight).putInt(config.passingGap);
+        out.putInt(config.lives).putLong(config.seed);
+        out.putInt(config.tickRate);
+        out.put((byte) (config.sweptCollision ? 1 : 0));
+        out.put((byte) (config.gapDrift ? 1 : 0));
+        out.putInt(config.gapRamp).putInt(config.minPassingGap);
+        out.putLong(tick);
+        helper.save(out);
+    }
+
+    static Checkpoint decode(ByteBuffer in) {
+        GameConfig config = new GameConfig(in.getInt(), in.getInt());
+        config.blockWidth = in.getInt();
+        config.pairs = in.getInt();
+        config.minBlockHeight = in.getInt();
+        config.passingGap = in.getInt();
+        config.lives = in.getInt();
+        config.seed = in.getLong();
+        config.tickRate = in.getInt();
+        config.sweptCollision = in.get() != 0;
+        config.gapDrift = in.get() != 0;
+        config.gapRamp = in.getInt();
+        config.minPassingGap = in.getInt();
+        long tick = in.getLong();
+        // a copy, so the checkpoint outlives the buffer it was read from
+        ByteBuffer world = ByteBuffer.allocate(in.remaining());
+        world.put(in).flip();
+        return new Checkpoint(config, tick, world);
+    }
+}
+
+
+/*
+    keeps the latest checkpoint of a game in a memory-mapped file. the file
+    has two slots that are written in turn, so a power cut half way through
+    writing one still leaves the other. each slot starts with a header:
+
+        "NGUC" version crc sequence length
+
+    where the crc covers the sequence, the length and the payload, and the
+    sequence goes up by one with every checkpoint. the valid slot with the
+    highest sequence is the latest checkpoint.
+
+    write() encodes straight into the mapping on the game thread, which is
+    a copy into the page cache. flushing it to the disk is left to a
+    background thread, so taking a checkpoint doesn't wait on the disk
+*/
+
+final class CheckpointFile implements Closeable {
+
+    static final int MAGIC = 0x4E475543; // "NGUC"
+    private static final int HEADER = 24;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer map;
+    private final ByteBuffer[] slots = new ByteBuffer[2];
+    private final int slotSize;
+    private final CRC32 crc = new CRC32();
+    private final Thread flusher;
+    private volatile long sequence; // of the latest slot written
+    private volatile boolean closed;
+
+    // opens the file for checkpoints of games with the given settings,
+    // carrying on after whatever checkpoint it already holds
+    CheckpointFile(Path path, GameConfig config) throws IOException {
+        slotSize = HEADER + Checkpoint.size(config);
+        Slot latest = latest(path);
+        sequence = (latest == null) ? 0 : latest.sequence;
+        channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        // slots are found from the size of the file, so it must be exact
+        if (channel.size() > 2L * slotSize) channel.truncate(2L * slotSize);
+        map = channel.map(FileChannel.MapMode.READ_WRITE, 0, 2L * slotSize);
+        for (int i = 0; i < 2; i++) slots[i] = map.slice(i * slotSize, slotSize);
+        flusher = new Thread(this::flush, "checkpoint");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    // takes a checkpoint of the game, into the slot not holding the latest
+    void write(GameHelper helper, long tick) {
+        long next = sequence + 1;
+        int index = (int) (next & 1);
+        ByteBuffer slot = slots[index];
+        slot.clear().position(HEADER);
+        Checkpoint.encode(helper, tick, slot);
+        int length = slot.position() - HEADER;
+        slot.putLong(12, next).putInt(20, length);
+        crc.reset();
+        crc.update(slot.limit(HEADER + length).position(12));
+        slot.putInt(0, MAGIC).putInt(4, Checkpoint.VERSION).putInt(8, (int) crc.getValue());
+        sequence = next;
+        LockSupport.unpark(flusher);
+    }
+
+    // forgets every checkpoint, the game they were of is over
+    void clear() {
+        for (ByteBuffer slot : slots) slot.putInt(0, 0);
+        map.force();
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        LockSupport.unpark(flusher);
+        map.force();
+        channel.close();
+    }
+
+    // flushes the file whenever a checkpoint has been written since the
+    // last flush. checkpoints written while flushing get the next one
+    private void flush() {
+        long flushed = sequence;
+        while (!closed) {
+            long written = sequence;
+            if (written == flushed) {
+                LockSupport.park(this);
+                continue;
+            }
+            map.force();
+            flushed = written;
+        }
+    }
+
+    // the latest checkpoint in the file, or null when there's none
+    static Checkpoint load(Path path) throws IOException {
+        Slot latest = latest(path);
+        return (latest == null) ? null : Checkpoint.decode(latest.payload);
+    }
+
+    // a valid slot of a checkpoint file
+    private static final class Slot {
+        final long sequence;
+        final ByteBuffer payload;
+
+        Slot(long sequence, ByteBuffer payload) {
+            this.sequence = sequence;
+            this.payload = payload;
+        }
+    }
+
+    private static Slot latest(Path path) throws IOException {
+        if (!Files.exists(path)) return null;
+        ByteBuffer file = ByteBuffer.wrap(Files.readAllBytes(path));
+        int slotSize = file.capacity() / 2;
+        if (slotSize < HEADER) return null;
+        Slot latest = null;
+        for (int i = 0; i < 2; i++) {
+            Slot slot = read(file.slice(i * slotSize, slotSize));
+            if (slot != null && (latest == null || slot.sequence > latest.sequence)) latest = slot;
+        }
+        return latest;
+    }
+
+    // the slot, or null when it's empty, torn or from another version
+    private static Slot read(ByteBuffer slot) {
+        if (slot.getInt(0) != MAGIC || slot.getInt(4) != Checkpoint.VERSION) return null;
+        int length = slot.getInt(20);
+        if (length < 0 || length > slot.capacity() - HEADER) return null;
+        CRC32 crc = new CRC32();
+        crc.update(slot.duplicate().limit(HEADER + length).position(12));
+        if ((int) crc.getValue() != slot.getInt(8)) return null;
+        return new Slot(slot.getLong(12), slot.slice(HEADER, length));
+    }
+}
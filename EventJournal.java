@@ -0,0 +1,369 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+
+/*
+    a journal of what happens in games: pairs spawning, the ball hitting a
+    block, pairs passed and games ending. every game writes its events
+    through a Writer of its own, a ring buffer of fixed size records that
+    only its game thread writes to, so writing an event is a few stores
+    into an array: no lock, no allocation and never a wait. when a ring is
+    full the event is dropped and counted. a background thread drains all
+    the rings into memory-mapped segment files of SEGMENT bytes in the
+    journal's directory, starting a new one when one is full and deleting
+    the oldest once there are more than the journal keeps. the rings of
+    finished games are used again by the next games, so simulations
+    playing many short games don't make a new one for each.
+
+    segment layout (big endian):
+        "NGUE" version used, padding to 32 bytes, then records of
+        tick game type a b c d
+    a long and six ints, used a long: the bytes of records, set when the
+    segment is finished. the rest of a segment is zeros, so in one left
+    unfinished by a crash a record of type 0 is where it ends. segments
+    keep their full size, they are mapped until closed and not every OS
+    lets a mapped file be cut down. game numbers the writers of the
+    journal, a b c d depend on the type:
+        SPAWN       x, top of the gap, bottom of the gap
+        HIT         middle of the ball, top and bottom of the gap of the
+                    pair at the ball's column
+        PASS        score, top and bottom of the gap of the pair passed
+        GAME_OVER   score
+
+    usage: java EventJournal <dir> [summary | heatmap]
+        summary     events of every type, games, hits a game
+        heatmap     hits by where the gap was, and whether the ball hit the
+                    block above it or below it
+*/
+
+public final class EventJournal implements Closeable {
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("usage: java EventJournal <dir> [summary | heatmap]");
+            System.exit(2);
+        }
+        Path dir = Paths.get(args[0]);
+        String query = (args.length > 1) ? args[1] : "summary";
+        switch (query) {
+            case "summary": summary(dir); break;
+            case "heatmap": heatmap(dir, 50); break;
+            default: throw new IllegalArgumentException("Unknown query " + query);
+        }
+    }
+
+    static final int MAGIC = 0x4E475545; // "NGUE"
+    static final int VERSION = 1;
+    static final int RECORD = 32; // bytes of a record
+    static final int HEADER = 32; // bytes before the first record
+    static final long SEGMENT = 64L * 1024 * 1024;
+    static final int KEEP = 64; // segments kept by default, 4 GB
+
+    static final int SPAWN = 1, HIT = 2, PASS = 3, GAME_OVER = 4;
+    private static final String[] NAMES = { "", "spawn", "hit", "pass", "game over" };
+
+    /*
+        the events of one game. a single producer single consumer ring,
+        like MouseInputQueue, of four longs an event. only the game thread
+        may call its methods, except close() once the game is over
+    */
+
+    static final class Writer implements Closeable {
+        private final EventJournal journal;
+        private int game;
+        private final long[] ring;
+        private final int mask; // events in the ring - 1
+        private final AtomicLong head = new AtomicLong(); // next to drain
+        private final AtomicLong tail = new AtomicLong(); // next to write
+        private long cachedHead; // head as last seen, read again when full
+        private long tick; // of the game, events are stamped with it
+        private volatile long dropped; // only the game thread adds to it
+        private volatile boolean closed;
+
+        private Writer(EventJournal journal, int game, int capacity) {
+            if (Integer.bitCount(capacity) != 1)
+                throw new IllegalArgumentException("Capacity must be a power of two");
+            this.journal = journal;
+            this.game = game;
+            ring = new long[capacity * 4];
+            mask = capacity - 1;
+        }
+
+        // called at the start of every tick of the game
+        void nextTick() {
+            tick++;
+        }
+
+        void write(int type, int a, int b, int c, int d) {
+            long t = tail.get();
+            if (t - cachedHead > mask) {
+                cachedHead = head.get();
+                if (t - cachedHead > mask) {
+                    dropped++;
+                    return;
+                }
+            }
+            int at = (int) (t & mask) * 4;
+            ring[at] = tick;
+            ring[at + 1] = (long) game << 32 | type;
+            ring[at + 2] = (long) a << 32 | (b & 0xFFFFFFFFL);
+            ring[at + 3] = (long) c << 32 | (d & 0xFFFFFFFFL);
+            tail.lazySet(t + 1); // publishes the event
+        }
+
+        // events dropped because the ring was full
+        long dropped() {
+            return dropped;
+        }
+
+        // no more events come, the journal drops the writer once drained
+        @Override
+        public void close() {
+            closed = true;
+            LockSupport.unpark(journal.drainer);
+        }
+    }
+
+    private final Path dir;
+    private final int keep; // segments kept, the oldest go first
+    private final List<Writer> writers = new CopyOnWriteArrayList<>();
+    private final Queue<Writer> free = new ConcurrentLinkedQueue<>(); // drained, closed
+    private final Thread drainer;
+    private final AtomicLong games = new AtomicLong();
+    private FileChannel channel;
+    private MappedByteBuffer segment;
+    private int segments;
+    private long events; // written to the segments
+    private volatile long dropped; // by the writers the journal let go of,
+                                   // and when a segment couldn't be started
+    private volatile boolean closing;
+
+    EventJournal(Path dir) throws IOException {
+        this(dir, KEEP);
+    }
+
+    EventJournal(Path dir, int keep) throws IOException {
+        this.dir = dir;
+        this.keep = Math.max(1, keep);
+        Files.createDirectories(dir);
+        // a new journal carries on after the segments already there, some
+        // of the older ones may have been deleted
+        for (Path file : segments(dir)) segments = Math.max(segments, number(file) + 1);
+        nextSegment();
+        drainer = new Thread(this::drain, "events");
+        drainer.setDaemon(true);
+        drainer.start();
+    }
+
+    // a writer for the events of a new game, with room for capacity
+    // events, a power of two
+    Writer writer(int capacity) {
+        int game = (int) games.getAndIncrement();
+        Writer writer = null;
+        for (Writer spare : free) {
+            // another game may take the same one first
+            if (spare.ring.length == capacity * 4 && free.remove(spare)) {
+                writer = spare;
+                break;
+            }
+        }
+        if (writer != null) {
+            writer.game = game;
+            writer.tick = 0;
+            writer.dropped = 0;
+            writer.closed = false;
+        } else {
+            writer = new Writer(this, game, capacity);
+        }
+        writers.add(writer);
+        return writer;
+    }
+
+    Writer writer() {
+        return writer(64 * 1024);
+    }
+
+    // events written to the files so far
+    long events() {
+        return events;
+    }
+
+    // events dropped so far, by full rings or a segment that couldn't be
+    // started
+    long dropped() {
+        long total = dropped;
+        for (Writer writer : writers) total += writer.dropped;
+        return total;
+    }
+
+    // drains every writer, closed or not, then finishes the segment
+    @Override
+    public void close() throws IOException {
+        closing = true;
+        LockSupport.unpark(drainer);
+        try { drainer.join(); }
+        catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+        finishSegment();
+    }
+
+    private void drain() {
+        while (true) {
+            boolean finishing = closing;
+            int drained = 0;
+            for (Writer writer : writers) {
+                drained += drain(writer);
+                if (writer.closed && writer.head.get() == writer.tail.get()) {
+                    writers.remove(writer);
+                    dropped += writer.dropped;
+                    free.offer(writer);
+                }
+            }
+            if (finishing) return;
+            // nothing came in, there's time to wait
+            if (drained == 0) LockSupport.parkNanos(this, 1_000_000L);
+        }
+    }
+
+    // copies what the writer has into the segment. returns how many events
+    private int drain(Writer writer) {
+        long h = writer.head.get(), t = writer.tail.get();
+        long[] ring = writer.ring;
+        for (long i = h; i < t; i++) {
+            if (segment.remaining() < RECORD) {
+                try {
+                    nextSegment();
+                } catch (IOException e) {
+                    System.err.println("Couldn't start a journal segment: " + e);
+                    writer.head.lazySet(t); // dropped, the game must not stall
+                    dropped += t - i;
+                    events += i - h;
+                    return (int) (t - h);
+                }
+            }
+            int at = (int) (i & writer.mask) * 4;
+            segment.putLong(ring[at]).putLong(ring[at + 1]);
+            segment.putLong(ring[at + 2]).putLong(ring[at + 3]);
+        }
+        writer.head.lazySet(t); // frees the slots
+        events += t - h;
+        return (int) (t - h);
+    }
+
+    private void nextSegment() throws IOException {
+        if (channel != null) finishSegment();
+        Path file = dir.resolve(String.format("events-%06d.journal", segments++));
+        channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, SEGMENT);
+        segment.putInt(MAGIC).putInt(VERSION).putLong(0).position(HEADER);
+        List<Path> files = segments(dir);
+        for (int i = 0; i < files.size() - keep; i++) Files.deleteIfExists(files.get(i));
+    }
+
+    // notes how much of the segment holds records and flushes it
+    private void finishSegment() throws IOException {
+        segment.putLong(8, segment.position() - HEADER);
+        segment.force();
+        channel.close();
+    }
+
+    // the number in a segment's name
+    private static int number(Path file) {
+        String name = file.getFileName().toString();
+        return Integer.parseInt(name.substring("events-".length(), name.length() - ".journal".length()));
+    }
+
+    // the segments in the directory, oldest first
+    static List<Path> segments(Path dir) throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "events-*.journal")) {
+            for (Path file : stream) {
+                if (file.getFileName().toString().matches("events-\\d+\\.journal")) files.add(file);
+            }
+        }
+        files.sort(Comparator.comparingInt(EventJournal::number));
+        return files;
+    }
+
+    // gets every event of the journal in the order they were drained
+    interface Visitor {
+        void event(long tick, int game, int type, int a, int b, int c, int d);
+    }
+
+    static void scan(Path dir, Visitor visitor) throws IOException {
+        for (Path file : segments(dir)) {
+            try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+                MappedByteBuffer map = in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+                if (map.limit() < HEADER || map.getInt(0) != MAGIC || map.getInt(4) != VERSION)
+                    throw new IOException(file + " is not a journal segment");
+                long used = map.getLong(8);
+                int end = (used > 0) ? (int) Math.min(map.limit(), HEADER + used) : map.limit();
+                for (int at = HEADER; at + RECORD <= end; at += RECORD) {
+                    long kind = map.getLong(at + 8);
+                    int type = (int) kind;
+                    if (type == 0) break;
+                    long ab = map.getLong(at + 16), cd = map.getLong(at + 24);
+                    visitor.event(map.getLong(at), (int) (kind >> 32), type,
+                            (int) (ab >> 32), (int) ab, (int) (cd >> 32), (int) cd);
+                }
+            }
+        }
+    }
+
+    static void summary(Path dir) throws IOException {
+        long[] counts = new long[NAMES.length];
+        long[] games = new long[1];
+        scan(dir, (tick, game, type, a, b, c, d) -> {
+            if (type < counts.length) counts[type]++;
+            games[0] = Math.max(games[0], game + 1L);
+        });
+        for (int type = 1; type < NAMES.length; type++)
+            System.out.printf("%-10s %d%n", NAMES[type], counts[type]);
+        System.out.printf(Locale.ROOT, "%d games, %.2f hits a game, %.1f pairs passed a game%n",
+                games[0], counts[HIT] / (double) Math.max(1, games[0]),
+                counts[PASS] / (double) Math.max(1, games[0]));
+    }
+
+    // hits against the pairs spawned, by where the top of the gap was in
+    // rows of the given height
+    static void heatmap(Path dir, int row) throws IOException {
+        int rows = 4096 / row;
+        long[] spawned = new long[rows], above = new long[rows], below = new long[rows];
+        scan(dir, (tick, game, type, a, b, c, d) -> {
+            if (type == SPAWN) {
+                spawned[Math.max(0, Math.min(rows - 1, b / row))]++;
+            } else if (type == HIT) {
+                int r = Math.max(0, Math.min(rows - 1, c / row));
+                // the ball hit the block its middle was closer to
+                if (b < (c + d) / 2) above[r]++;
+                else below[r]++;
+            }
+        });
+        long most = 1;
+        for (int r = 0; r < rows; r++) most = Math.max(most, above[r] + below[r]);
+        System.out.printf("%-11s %8s %8s %8s %7s%n", "gap top", "pairs", "above", "below", "hit %");
+        for (int r = 0; r < rows; r++) {
+            if (spawned[r] == 0 && above[r] + below[r] == 0) continue;
+            long hits = above[r] + below[r];
+            System.out.printf(Locale.ROOT, "%4d..%-5d %8d %8d %8d %6.2f%% %s%n", r * row,
+                    (r + 1) * row, spawned[r], above[r], below[r],
+                    100.0 * hits / Math.max(1, spawned[r]), "#".repeat((int) (40 * hits / most)));
+        }
+    }
+}
@@ -0,0 +1,294 @@
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+
+
+/*
+    renders a game into image files without a display, for bug reports and
+    attract mode loops. the game is a recording played back, or a bot
+    playing a seed, simulated as fast as the CPU allows. after every tick
+    the game thread only copies the world into a WorldSnapshot, worker
+    threads draw the snapshots into offscreen images the way Game.render()
+    draws them on the canvas and encode them, and one writer thread puts
+    the encoded frames out in order.
+
+    a frame travels with its own snapshot, image and encode buffer, and
+    there are only --pool of them: when all are in flight the game waits
+    for the writer to hand one back, so memory stays the same however long
+    the session is.
+
+    formats:
+        png     a frame_000000.png file per frame in the output directory
+        raw     every frame as packed 24 bit rgb in one output file, e.g.
+                ffmpeg -f rawvideo -pixel_format rgb24 -video_size 800x600
+                    -framerate 60 -i frames.raw game.mp4
+
+    usage: java -Djava.awt.headless=true FrameExport [options] <output>
+        --recording file      play back a recording
+        --bot seeker          otherwise a bot plays, see BotHarness
+        --seed 1              seed of the bot's game
+        --ticks 36000         ticks exported at most, ten minutes at 60
+        --every 1             export every this many ticks
+        --format png          png or raw
+        --threads n           workers, one per core by default
+        --pool n              frames in flight, twice the workers by default
+*/
+
+public final class FrameExport {
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        String recordingFile = null, bot = "seeker", format = "png", output = null;
+        long seed = 1, maxTicks = 36_000;
+        int every = 1, threads = Runtime.getRuntime().availableProcessors(), pool = 0;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--recording": recordingFile = args[++i]; break;
+                case "--bot": bot = args[++i]; break;
+                case "--seed": seed = Long.parseLong(args[++i]); break;
+                case "--ticks": maxTicks = Long.parseLong(args[++i]); break;
+                case "--every": every = Math.max(1, Integer.parseInt(args[++i])); break;
+                case "--format": format = args[++i]; break;
+                case "--threads": threads = Math.max(1, Integer.parseInt(args[++i])); break;
+                case "--pool": pool = Integer.parseInt(args[++i]); break;
+                default:
+                    if (args[i].startsWith("--") || output != null)
+                        throw new IllegalArgumentException("Unknown option " + args[i]);
+                    output = args[i];
+            }
+        }
+        if (output == null) {
+            System.err.println("usage: java -Djava.awt.headless=true FrameExport [options] <output>");
+            System.exit(2);
+        }
+        if (!format.equals("png") && !format.equals("raw"))
+            throw new IllegalArgumentException("Unknown format " + format);
+
+        HeadlessEngine engine;
+        if (recordingFile != null) {
+            Recording recording;
+            try (InputStream in = new BufferedInputStream(
+                    Files.newInputStream(Paths.get(recordingFile)))) {
+                recording = Recording.read(in);
+            }
+            engine = new HeadlessEngine(recording.config, recording.input());
+            maxTicks = Math.min(maxTicks, recording.ticks);
+        } else {
+            GameConfig config = new GameConfig();
+            config.seed = seed;
+            GameHelper world = new GameHelper(config, ScoreBoard.NONE);
+            BotHarness.BotPolicy policy = BotHarness.bot(bot, seed);
+            engine = new HeadlessEngine(world, tick -> policy.steer(world, tick));
+        }
+
+        GameConfig config = engine.helper().config();
+        FrameExport export = new FrameExport(config.width, config.height, format,
+                Paths.get(output), threads, (pool > 0) ? pool : 2 * threads);
+        long start = System.nanoTime();
+        // the world as it starts, then after every few ticks
+        export.submit(engine.helper());
+        while (engine.ticks() < maxTicks && !engine.helper().isGameOver()) {
+            engine.step();
+            if (engine.ticks() % every == 0) export.submit(engine.helper());
+        }
+        export.finish();
+        double secs = (System.nanoTime() - start) / 1e9;
+        System.out.printf(Locale.ROOT, "%d frames of %d ticks in %.3f s (%.1f fps), %.1f MB, "
+                + "%d threads%n", export.frames(), engine.ticks(), secs, export.frames() / secs,
+                export.written() / (1024.0 * 1024.0), threads);
+    }
+
+    // one frame on its way through the pipeline
+    private static final class Frame {
+        final WorldSnapshot world = new WorldSnapshot();
+        final BufferedImage image;
+        final ByteArrayOutputStream encoded; // png
+        final byte[] rgb; // raw
+        long index;
+
+        Frame(int width, int height, boolean raw) {
+            image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            encoded = raw ? null : new ByteArrayOutputStream(256 * 1024);
+            rgb = raw ? new byte[width * height * 3] : null;
+        }
+    }
+
+    private final int width, height;
+    private final boolean raw;
+    private final Path output;
+    private final int pool;
+    private final BlockingQueue<Frame> free; // ready for the game thread
+    private final BlockingQueue<Frame> work; // waiting for a worker
+    private final AtomicReferenceArray<Frame> done; // encoded, by index % pool
+    private final Thread[] workers;
+    private final Thread writer;
+    private final OutputStream rawOut; // null for png
+    private long submitted; // frames handed to the workers
+    private volatile long total = -1; // every frame, once finish() is called
+    private volatile long written; // bytes
+    private volatile Throwable failure;
+
+    FrameExport(int width, int height, String format, Path output, int threads, int pool)
+            throws IOException {
+        this.width = width;
+        this.height = height;
+        this.raw = format.equals("raw");
+        this.output = output;
+        this.pool = pool;
+        if (raw) {
+            rawOut = Files.newOutputStream(output);
+        } else {
+            Files.createDirectories(output);
+            rawOut = null;
+        }
+        // the png encoder would otherwise go through temporary files
+        ImageIO.setUseCache(false);
+        free = new ArrayBlockingQueue<>(pool);
+        for (int i = 0; i < pool; i++) free.add(new Frame(width, height, raw));
+        work = new ArrayBlockingQueue<>(pool);
+        done = new AtomicReferenceArray<>(pool);
+        writer = new Thread(this::write, "export-writer");
+        writer.setDaemon(true);
+        writer.start();
+        workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new Thread(this::encode, "export-" + i);
+            workers[i].setDaemon(true);
+            workers[i].start();
+        }
+    }
+
+    // hands the world as it is now to the workers, waiting for a free frame
+    // when every one is in flight
+    void submit(GameHelper helper) throws IOException, InterruptedException {
+        if (failure != null) throw new IOException("Couldn't export a frame", failure);
+        Frame frame = free.take();
+        helper.snapshot(frame.world, 0);
+        frame.index = submitted++;
+        work.put(frame);
+    }
+
+    // waits for every submitted frame to be written, then stops
+    void finish() throws IOException, InterruptedException {
+        total = submitted;
+        LockSupport.unpark(writer);
+        writer.join();
+        for (Thread worker : workers) worker.interrupt();
+        if (rawOut != null) rawOut.close();
+        if (failure != null) throw new IOException("Couldn't export a frame", failure);
+    }
+
+    long frames() {
+        return submitted;
+    }
+
+    long written() {
+        return written;
+    }
+
+    // a worker: draws frames and encodes them, in whatever order they come
+    private void encode() {
+        // neither is thread-safe, every worker draws with its own
+        SpriteCache sprites = new SpriteCache(64);
+        Hud hud = new Hud();
+        ImageWriter png = raw ? null : ImageIO.getImageWritersByFormatName("png").next();
+        ImageWriteParam param = raw ? null : png.getDefaultWriteParam();
+        if (param != null && param.canWriteCompressed()) {
+            // a light deflate, most of a frame is flat colour anyway
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(0.75f);
+        }
+        try {
+            while (true) {
+                Frame frame = work.take();
+                try {
+                    Graphics2D gfx = frame.image.createGraphics();
+                    Game.renderBackGround(gfx, width, height);
+                    frame.world.render(gfx, 1f, sprites);
+                    hud.draw(gfx, frame.world.score, frame.world.lives, width);
+                    gfx.dispose();
+                    if (raw) {
+                        toRgb(frame);
+                    } else {
+                        frame.encoded.reset();
+                        try (ImageOutputStream out = new MemoryCacheImageOutputStream(frame.encoded)) {
+                            png.setOutput(out);
+                            png.write(null, new IIOImage(frame.image, null, null), param);
+                        }
+                    }
+                } catch (IOException | RuntimeException e) {
+                    failure = e;
+                }
+                done.set((int) (frame.index % pool), frame);
+                LockSupport.unpark(writer);
+            }
+        } catch (InterruptedException e) {
+            // finished
+        } finally {
+            if (png != null) png.dispose();
+        }
+    }
+
+    private void toRgb(Frame frame) {
+        int[] pixels = ((DataBufferInt) frame.image.getRaster().getDataBuffer()).getData();
+        byte[] rgb = frame.rgb;
+        for (int i = 0, o = 0; i < pixels.length; i++, o += 3) {
+            int p = pixels[i];
+            rgb[o] = (byte) (p >> 16);
+            rgb[o + 1] = (byte) (p >> 8);
+            rgb[o + 2] = (byte) p;
+        }
+    }
+
+    // the writer: puts the frames out in the order they were submitted. at
+    // most pool frames are in flight, so frame n is the only one that can
+    // be in slot n % pool
+    private void write() {
+        long next = 0;
+        long bytes = 0;
+        while (true) {
+            Frame frame = done.get((int) (next % pool));
+            if (frame == null || frame.index != next) {
+                if (next == total) break;
+                LockSupport.park(this);
+                continue;
+            }
+            done.set((int) (next % pool), null);
+            try {
+                if (raw) {
+                    rawOut.write(frame.rgb);
+                    bytes += frame.rgb.length;
+                } else {
+                    Path file = output.resolve(String.format("frame_%06d.png", next));
+                    try (OutputStream out = Files.newOutputStream(file)) {
+                        frame.encoded.writeTo(out);
+                    }
+                    bytes += frame.encoded.size();
+                }
+            } catch (IOException e) {
+                failure = e;
+            }
+            written = bytes;
+            next++;
+            free.add(frame);
+        }
+    }
+}
@@ -1,71 +1,354 @@
-import java.util.Random;
-import java.util.LinkedList;
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
 
+import java.awt.BasicStroke;
 import java.awt.Cursor;
 import java.awt.Dimension;
+import java.awt.DisplayMode;
 import java.awt.Font;
 import java.awt.event.MouseAdapter;
 import java.awt.Canvas;
 import java.awt.Color;
+import java.awt.FontMetrics;
 import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.GraphicsEnvironment;
+import java.awt.HeadlessException;
+import java.awt.Image;
+import java.awt.Transparency;
 import java.awt.event.MouseEvent;
 import java.awt.image.BufferStrategy;
+import java.awt.image.BufferedImage;
+import java.awt.image.VolatileImage;
 
-import javax.swing.BorderFactory;
 import javax.swing.JFrame;
-import javax.swing.JLabel;
 import javax.swing.JOptionPane;
 
 
 public final class Game extends Canvas implements Runnable {
 
     public static void main(String[] args) {
-        initGame();
+        // --record <file> keeps the session so it can be replayed later
+        // --stats draws frame timings on the screen, --metrics <file> appends
+        // them to a file every second and --jfr only emits the JFR events.
+        // --checkpoint <file> saves the game every --checkpoint-every ticks
+        // (300 by default) and carries on from there when started again.
+        // --spectators <port> streams the game to SpectatorClients.
+        // --scores <file> keeps the result of every game in a leaderboard.
+        // --events <dir> journals what happens in the game, see EventJournal
+        String recordTo = null, metricsTo = null, checkpointTo = null, scoresTo = null;
+        String eventsTo = null;
+        boolean stats = false, jfr = false;
+        int checkpointEvery = 300, spectatorPort = -1;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--record") && i + 1 < args.length) recordTo = args[++i];
+            else if (args[i].equals("--checkpoint") && i + 1 < args.length) checkpointTo = args[++i];
+            else if (args[i].equals("--checkpoint-every") && i + 1 < args.length) 
+                checkpointEvery = Integer.parseInt(args[++i]);
+            else if (args[i].equals("--spectators") && i + 1 < args.length) 
+                spectatorPort = Integer.parseInt(args[++i]);
+            else if (args[i].equals("--scores") && i + 1 < args.length) scoresTo = args[++i];
+            else if (args[i].equals("--events") && i + 1 < args.length) eventsTo = args[++i];
+            else if (args[i].equals("--metrics") && i + 1 < args.length) metricsTo = args[++i];
+            else if (args[i].equals("--stats")) stats = true;
+            else if (args[i].equals("--jfr")) jfr = true;
+        }
+        Metrics metrics = (stats || jfr || metricsTo != null) 
+                ? new Metrics(true, stats, metricsTo).start() : Metrics.OFF;
+        initGame(recordTo, checkpointTo, checkpointEvery, spectatorPort, scoresTo, eventsTo, 
+                metrics);
     }
     
     private final int WINDOW_WIDTH = 800, WINDOW_HEIGHT = 600;
     private final GameWindow window; // window frame of the game
     private final GameHelper helper; // game logic handler
     private final Thread gameThread; // game will run on this thread
-    private boolean running;
+    private final Thread renderThread; // frames are drawn on this one
+    private final FrameScheduler scheduler; // paces updates and frames
+    private final MouseInputQueue input; // mouse moves, handed to the game thread
+    private final SnapshotExchange snapshots; // finished updates, for drawing
+    private final Metrics metrics; // loop timings, usually Metrics.OFF
+    private final SpriteCache sprites = new SpriteCache(64);
+    private final Hud hud = new Hud(); // score and lives, drawn on the canvas
+    private final Viewport viewport; // fixed internal resolution, or null
+    private final int worldWidth, worldHeight;
+    private final PlayerInput steering; // the input, recorded or not
+    private final Recording recording; // null unless recording
+    private final String recordTo; // file the recording is saved to
+    private volatile boolean recordingSaved;
+    private final CheckpointFile checkpoints; // null unless checkpointing
+    private final int checkpointEvery; // ticks between two checkpoints
+    private final SpectatorServer spectators; // null unless streaming
+    private final HighScores scores; // null unless keeping a leaderboard
+    private boolean scoreRecorded; // gameOver() comes every tick once over
+    private final EventJournal events; // null unless journaling
+    private final Thread warmup; // loads what the first frame needs
+    // the world the game starts with, once made, for the warmup to draw
+    // its sprites. only read until start(), when the game thread takes it
+    private final CompletableFuture<GameHelper> warmupWorld = new CompletableFuture<>();
+    private final boolean exitAfterFirstFrame; // for StartupBench
+    private boolean shownFirstFrame;
+    private long tick; // number of updates so far
+    private volatile boolean running;
     
-    Game() {
+    Game(String recordTo, String checkpointTo, int checkpointEvery, int spectatorPort, 
+            String scoresTo, String eventsTo, Metrics metrics) {
+        this.metrics = metrics;
+        // fonts, Java2D's loops and the sprites of the first world load on
+        // another thread while the window is being made. start() waits for
+        // it before the render thread uses the same Hud and SpriteCache
+        warmup = new Thread(this::warmUp, "warmup");
+        warmup.setDaemon(true);
+        warmup.start();
+        exitAfterFirstFrame = Boolean.getBoolean("game.exitAfterFirstFrame");
         window = new GameWindow(WINDOW_WIDTH, WINDOW_HEIGHT, "Never Give Up", (Game)this);
-        helper = new GameHelper(window);
-        gameThread = new Thread(this);
-        // adding custom mouse control defined for the Player
-        addMouseMotionListener(helper.getPlayer().getControl());
+        // the window is showing, so the first render() can draw already
+        createBufferStrategy(2);
+        GameConfig config = new GameConfig(window.getSize().width, 
+                window.getSize().height);
+        // -Dgame.ups lowers the tick rate for slow machines. below 60 the
+        // blocks move far enough in a tick to need the swept test, which
+        // -Dgame.swept also turns on at any rate
+        config.tickRate = Integer.getInteger("game.ups", 60);
+        config.sweptCollision = Boolean.getBoolean("game.swept") || config.tickRate < 60;
+        this.recordTo = recordTo;
+        this.checkpointEvery = Math.max(1, checkpointEvery);
+        // a game left unfinished in the checkpoint file carries on, unless
+        // this one is being recorded, recordings start from the beginning
+        Checkpoint resumed = null;
+        if (checkpointTo != null && recordTo == null) {
+            try {
+                resumed = CheckpointFile.load(Paths.get(checkpointTo));
+            } catch (IOException e) {
+                System.err.println("Couldn't read the checkpoint: " + e);
+            }
+            if (resumed != null) config = resumed.config;
+        }
+        recording = (recordTo == null) ? null : new Recording(config);
+        HighScores store = null;
+        if (scoresTo != null) {
+            try {
+                store = new HighScores(Paths.get(scoresTo));
+            } catch (IOException e) {
+                System.err.println("Couldn't open the high scores: " + e);
+            }
+        }
+        scores = store;
+        // when recording, the session is saved just before the game over
+        // prompt, because that prompt exits the game. the checkpoints are
+        // forgotten then too, so the next start is a new game, and the
+        // score is queued for the leaderboard, which is written out when
+        // the game exits
+        ScoreBoard scoreBoard = (recording == null && checkpointTo == null && scores == null) 
+                ? window : new ScoreBoard() {
+            @Override public void updateScore(int score) { window.updateScore(score); }
+            @Override public void updateLives(int lives) { window.updateLives(lives); }
+            @Override public void gameOver(int score) {
+                if (recording != null) saveRecording();
+                if (checkpoints != null) checkpoints.clear();
+                if (scores == null) {
+                    window.gameOver(score);
+                    return;
+                }
+                int best = Math.max(score, scores.best());
+                // closing the prompt without OK brings it back next tick,
+                // the game still goes on the leaderboard once
+                if (!scoreRecorded) {
+                    scoreRecorded = true;
+                    scores.record(score, tick, helper.config().seed);
+                }
+                window.raiseMsg("GAMEOVER\nScore: " + score + "\nBest: " + best);
+            }
+        };
+        if (resumed != null) {
+            helper = resumed.restore(scoreBoard);
+            tick = resumed.tick;
+        } else {
+            helper = new GameHelper(config, scoreBoard);
+        }
+        warmupWorld.complete(helper);
+        helper.generateAhead();
+        EventJournal journal = null;
+        if (eventsTo != null) {
+            try {
+                journal = new EventJournal(Paths.get(eventsTo));
+                helper.journal(journal.writer());
+            } catch (IOException e) {
+                System.err.println("Couldn't open the event journal: " + e);
+            }
+        }
+        events = journal;
+        CheckpointFile file = null;
+        if (checkpointTo != null) {
+            try {
+                file = new CheckpointFile(Paths.get(checkpointTo), config);
+            } catch (IOException e) {
+                System.err.println("Couldn't open the checkpoint file: " + e);
+            }
+        }
+        checkpoints = file;
+        SpectatorServer server = null;
+        if (spectatorPort >= 0) {
+            try {
+                server = new SpectatorServer(spectatorPort, config).start();
+            } catch (IOException e) {
+                System.err.println("Couldn't stream to spectators: " + e);
+            }
+        }
+        spectators = server;
+        worldWidth = config.width;
+        worldHeight = config.height;
+        gameThread = new Thread(this, "game");
+        renderThread = new Thread(this::renderLoop, "render");
+        // tickRate updates a second, frames paced to the screen's refresh
+        // rate unless -Dgame.fps says otherwise (0 renders as fast as possible)
+        scheduler = new FrameScheduler(config.tickRate, 
+                Integer.getInteger("game.fps", FrameScheduler.refreshRate()), 5, 
+                metrics);
+        snapshots = new SnapshotExchange();
+        helper.snapshot(snapshots.back(), System.nanoTime());
+        snapshots.publish();
+        // the mouse only queues where it went, the player is moved by the
+        // game thread at the start of the next update
+        input = new MouseInputQueue(256);
+        // -Dgame.scaled draws the world at its own size and stretches it over
+        // the canvas, -Dgame.dynamicResolution also lowers that resolution
+        // while frames run over budget. the pointer is then mapped back
+        // into the world before it's queued
+        boolean dynamic = Boolean.getBoolean("game.dynamicResolution");
+        if (dynamic || Boolean.getBoolean("game.scaled")) {
+            viewport = new Viewport(worldWidth, worldHeight, dynamic, scheduler.frameNanos());
+            addMouseMotionListener(new MouseAdapter() {
+                @Override
+                public void mouseMoved(MouseEvent event) {
+                    int w = getWidth(), h = getHeight();
+                    input.offer(viewport.toWorldX(event.getX(), w, h), 
+                            viewport.toWorldY(event.getY(), w, h));
+                }
+            });
+        } else {
+            viewport = null;
+            addMouseMotionListener(input);
+        }
+        steering = (recording == null) ? input : recording.record(input);
+        if (recording != null || checkpoints != null) {
+            // closing the window mid game still keeps what was played and
+            // where it got to. the prompt at the end exits from the game
+            // thread, which has saved what there is to save by then
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                boolean over = recordingSaved || helper.isGameOver();
+                if (!over) {
+                    running = false;
+                    try { gameThread.join(1000); } 
+                    catch (InterruptedException e) { }
+                }
+                if (recording != null) saveRecording();
+                if (checkpoints != null) {
+                    // only once the game thread has stopped writing them
+                    if (!over && !gameThread.isAlive()) checkpoints.write(helper, tick);
+                    try { checkpoints.close(); } 
+                    catch (IOException e) { System.err.println("Couldn't save the checkpoint: " + e); }
+                }
+            }));
+        }
+        if (scores != null) {
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try { scores.close(); } 
+                catch (IOException e) { System.err.println("Couldn't save the high scores: " + e); }
+            }));
+        }
+        if (events != null) {
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try { events.close(); } 
+                catch (IOException e) { System.err.println("Couldn't save the events: " + e); }
+                System.out.printf("%d events journaled, %d dropped%n", events.events(), events.dropped());
+            }));
+        }
     }
     
-    private static void initGame() {
+    private static void initGame(String recordTo, String checkpointTo, 
+            int checkpointEvery, int spectatorPort, String scoresTo, String eventsTo, 
+            Metrics metrics) {
         // starting the game on a new thread
-        new Game().start();
+        new Game(recordTo, checkpointTo, checkpointEvery, spectatorPort, scoresTo, eventsTo, 
+                metrics).start();
+    }
+    
+    // writes the session played so far to the record file, once
+    private synchronized void saveRecording() {
+        if (recordingSaved) return;
+        recording.finish(tick, helper);
+        try (OutputStream out = new BufferedOutputStream(
+                new FileOutputStream(recordTo))) {
+            recording.write(out);
+        } catch (IOException e) {
+            System.err.println("Couldn't save the recording: " + e);
+        }
+        recordingSaved = true;
     }
     
     private synchronized void start() {
         if (running) return;
-        gameThread.start();
+        try { warmup.join(); } 
+        catch (InterruptedException e) { }
+        // set before the threads start, otherwise their loops could see false
         running = true;
+        gameThread.start();
+        renderThread.start();
     }
     
     private synchronized void stop() {
         if (!running) return;
-        try { gameThread.join(); } 
-        catch(InterruptedException e) { }
         running = false;
+        try { 
+            gameThread.join(); 
+            renderThread.join();
+        } 
+        catch(InterruptedException e) { }
     }
     
-    // renders the background of the game world
-    void renderBackGround(Graphics gfx) {
+    // draws offscreen what the first frames need, which loads the classes,
+    // fonts and sprites they would otherwise wait for. the hud and the
+    // background go first, the sprites of the world the game starts with
+    // once the constructor has made it, new or resumed
+    private void warmUp() {
+        BufferedImage scratch = new BufferedImage(WINDOW_WIDTH, WINDOW_HEIGHT, 
+                BufferedImage.TYPE_INT_RGB);
+        Graphics2D gfx = scratch.createGraphics();
+        renderBackGround(gfx, WINDOW_WIDTH, WINDOW_HEIGHT);
+        hud.draw(gfx, 0, 0, WINDOW_WIDTH);
+        // the ball takes one of the cache's slots
+        warmupWorld.join().warmSprites(gfx, sprites, sprites.capacity() - 1);
+        gfx.dispose();
+    }
+    
+    // renders the background of the game world over width x height
+    static void renderBackGround(Graphics gfx, int width, int height) {
         gfx.setColor(Color.MAGENTA);
-        gfx.fillRect(0, 0, WINDOW_WIDTH * 2, WINDOW_HEIGHT * 2);
+        // only what is actually shown needs filling
+        gfx.fillRect(0, 0, width, height);
     }
 
-    // render all game graphics on the screen
+    // render the latest finished update on the screen
     void render() {
         BufferStrategy bfs = this.getBufferStrategy();
-        // this null checking is important because when the game
-        // start, bfs will initially be null
+        // the constructor makes it, it's only missing if the canvas has
+        // been taken off the screen since
         if (bfs == null) {
             // the number of screen buffer
             final int buffers = 0x2;
@@ -74,50 +357,301 @@ public final class Game extends Canvas implements Runnable {
             return;
         }
         
+        long start = metrics.now();
+        WorldSnapshot world = snapshots.latest();
+        // how far the clock is past that update, blocks are drawn that far
+        // between their previous and current positions
+        float alpha = (float) (System.nanoTime() - world.time) / scheduler.stepNanos();
+        alpha = Math.max(0f, Math.min(1f, alpha));
+        
+        long began = System.nanoTime();
         Graphics gfx = bfs.getDrawGraphics();
-        renderBackGround(gfx); // render the background of the game window
-        helper.renderAll(gfx); // render everything else on the screen
+        if (viewport == null) {
+            renderBackGround(gfx, getWidth(), getHeight()); // render the background of the game window
+            world.render(gfx, alpha, sprites); // render everything else on the screen
+        } else {
+            // the world at its own resolution, then scaled onto the canvas
+            Graphics2D scene = viewport.begin(this);
+            if (scene != null) {
+                renderBackGround(scene, worldWidth, worldHeight);
+                world.render(scene, alpha, sprites);
+                scene.dispose();
+                viewport.blit(gfx, getWidth(), getHeight());
+            }
+        }
+        // the hud is drawn at the canvas' resolution so its text stays sharp
+        hud.draw(gfx, world.score, world.lives, getWidth());
+        metrics.drawOverlay(gfx);
 
+        long shown = metrics.now();
+        if (viewport != null) viewport.frame(System.nanoTime() - began);
         bfs.show();
         gfx.dispose();
+        metrics.frame(start, shown, metrics.now());
+        if (!shownFirstFrame) {
+            shownFirstFrame = true;
+            if (exitAfterFirstFrame) {
+                long started = ManagementFactory.getRuntimeMXBean().getStartTime();
+                System.out.println("first frame after " 
+                        + (System.currentTimeMillis() - started) + " ms");
+                System.exit(0);
+            }
+        }
     }
 
-    // update all entities of the game
+    // update all entities of the game, then hand the result to the renderer
     void update() {
+        long start = metrics.now();
+        helper.steer(steering.poll(tick++));
         helper.updateAll();
+        if (checkpoints != null && tick % checkpointEvery == 0 && !helper.isGameOver())
+            checkpoints.write(helper, tick);
+        if (spectators != null) spectators.publish(helper, tick);
+        helper.snapshot(snapshots.back(), System.nanoTime());
+        snapshots.publish();
+        metrics.tick(start, tick);
     }  
 
     
-    /*
-        this is the frame rate optimzing algorithm
-        it provide a constant 60 fps (given the computer can handle it)
-    */
-    
     @Override
     public void run() {
-        long lastTime = System.nanoTime(); // current system time in nano secs
-        double amountOfTicks = 60.0; // number of FPS
-        double ns = 1000000000 / amountOfTicks;
-        double delta = 0;
-        while(running){
-            long now = System.nanoTime(); // get system time in nano seconds
-            // finds the time difference between lastTime and now, then divide
-            // it by ns. this is value is then added to delta
-            delta += (now - lastTime) / ns;
-            lastTime = now;
-            while(delta >= 1){
-                update(); // update the game contents
-                delta--;
+        scheduler.runUpdates(() -> running, this::update);
+    }
+    
+    private void renderLoop() {
+        scheduler.runFrames(() -> running, this::render);
+    }
+}
+
+
+/*
+    the FrameScheduler paces the game loops. updates happen at a fixed rate,
+    at most maxCatchUp of them back to back when the loop falls behind (the
+    rest of the backlog is dropped rather than spiralling). frames are
+    rendered at most fps times a second.
+    between deadlines the thread is parked instead of spinning, only the
+    last SPIN_NANOS before a deadline are spun for precision
+*/
+
+class FrameScheduler {
+    
+    static final long SPIN_NANOS = 250_000L;
+    
+    private final long stepNanos; // time between two updates
+    private final long frameNanos; // minimum time between two frames
+    private final int maxCatchUp; // most updates run back to back
+    private final Metrics metrics; // told how many updates ran back to back
+    
+    FrameScheduler(int updatesPerSecond, int fps, int maxCatchUp) {
+        this(updatesPerSecond, fps, maxCatchUp, Metrics.OFF);
+    }
+    
+    FrameScheduler(int updatesPerSecond, int fps, int maxCatchUp, Metrics metrics) {
+        this.stepNanos = 1_000_000_000L / updatesPerSecond;
+        this.frameNanos = (fps <= 0) ? 0 : 1_000_000_000L / fps;
+        this.maxCatchUp = maxCatchUp;
+        this.metrics = metrics;
+    }
+    
+    // refresh rate of the main screen, 60 when it can't be found out
+    static int refreshRate() {
+        try {
+            int hz = GraphicsEnvironment.getLocalGraphicsEnvironment()
+                    .getDefaultScreenDevice().getDisplayMode().getRefreshRate();
+            return (hz == DisplayMode.REFRESH_RATE_UNKNOWN) ? 60 : hz;
+        } catch (HeadlessException e) {
+            return 60;
+        }
+    }
+    
+    long stepNanos() {
+        return stepNanos;
+    }
+    
+    // the time a frame has, at most, before the next one is due
+    long frameNanos() {
+        return (frameNanos > 0) ? frameNanos : stepNanos;
+    }
+    
+    // runs update at the fixed rate for as long as running is true
+    void runUpdates(BooleanSupplier running, Runnable update) {
+        long nextUpdate = System.nanoTime();
+        while (running.getAsBoolean()) {
+            long now = System.nanoTime();
+            int updates = 0;
+            while (now - nextUpdate >= 0 && updates < maxCatchUp) {
+                update.run(); // update the game contents
+                nextUpdate += stepNanos;
+                updates++;
+            }
+            if (updates > 0) metrics.caughtUp(updates);
+            if (now - nextUpdate >= 0) {
+                // still behind after catching up, forget about the backlog
+                nextUpdate = now + stepNanos;
             }
-            render(); // render game contents
+            sleepUntil(nextUpdate);
+        }
+    }
+    
+    // runs render at most fps times a second for as long as running is true
+    void runFrames(BooleanSupplier running, Runnable render) {
+        long nextFrame = System.nanoTime();
+        while (running.getAsBoolean()) {
+            render.run(); // render game contents
+            nextFrame += frameNanos;
+            long now = System.nanoTime();
+            // a frame that ran long doesn't earn extra frames later
+            if (now - nextFrame > frameNanos) nextFrame = now;
+            sleepUntil(nextFrame);
+        }
+    }
+    
+    // parks the thread until shortly before the deadline then spins the rest
+    static void sleepUntil(long deadline) {
+        long remaining;
+        while ((remaining = deadline - System.nanoTime()) > SPIN_NANOS) {
+            LockSupport.parkNanos(remaining - SPIN_NANOS);
+        }
+        while (deadline - System.nanoTime() > 0) {
+            Thread.onSpinWait();
+        }
+    }
+}
+
+
+/*
+    everything a frame needs to draw the world as it was after one update,
+    copied into flat arrays so the render thread never touches the live
+    Blocks and Player the game thread is changing
+*/
+
+final class WorldSnapshot {
+    
+    int blocks; // number of blocks in the arrays
+    int[] x = new int[0], prevX = new int[0], y = new int[0], 
+            width = new int[0], height = new int[0], id = new int[0];
+    int playerX, playerY, playerWidth, playerHeight;
+    int score, lives;
+    long time; // System.nanoTime() when the update finished
+    
+    // makes room for n blocks. only allocates when the world has grown
+    void ensureCapacity(int n) {
+        if (x.length >= n) return;
+        x = new int[n]; 
+        prevX = new int[n]; 
+        y = new int[n];
+        width = new int[n]; 
+        height = new int[n]; 
+        id = new int[n];
+    }
+    
+    void render(Graphics gfx, float alpha, SpriteCache sprites) {
+        for (int i = 0; i < blocks; i++) {
+            Color color = (id[i] % 2 == 0) ? Color.CYAN : Color.GREEN;
+            int bx = prevX[i] + Math.round((x[i] - prevX[i]) * alpha);
+            Image sprite = sprites.get(Block.SPRITE, width[i], height[i], color, 
+                    Block::paint);
+            if (sprite == null) Block.paint(gfx, bx, y[i], width[i], height[i], color);
+            else gfx.drawImage(sprite, bx, y[i], null);
         }
+        Image sprite = sprites.get(Player.SPRITE, playerWidth, playerHeight, 
+                Color.ORANGE, Player::paint);
+        if (sprite == null) 
+            Player.paint(gfx, playerX, playerY, playerWidth, playerHeight, Color.ORANGE);
+        else gfx.drawImage(sprite, playerX, playerY, null);
+    }
+}
+
+
+/*
+    a lock-free triple buffer of snapshots. the game thread fills back() and
+    publishes it, the render thread picks up whichever snapshot was published
+    last. neither side ever waits for the other and a snapshot is never
+    written while it is being drawn
+*/
+
+final class SnapshotExchange {
+    
+    private static final int FRESH = 4; // set when the middle one is unseen
+    
+    private final WorldSnapshot[] buffers = { 
+        new WorldSnapshot(), new WorldSnapshot(), new WorldSnapshot() 
+    };
+    private int back = 0, front = 1; // only touched by their own thread
+    private final AtomicInteger middle = new AtomicInteger(2);
+    
+    // the snapshot the game thread may write to
+    WorldSnapshot back() {
+        return buffers[back];
+    }
+    
+    // swaps the written snapshot into the middle for the render thread
+    void publish() {
+        back = middle.getAndSet(back | FRESH) & ~FRESH;
+    }
+    
+    // the most recently published snapshot
+    WorldSnapshot latest() {
+        if ((middle.get() & FRESH) != 0) {
+            front = middle.getAndSet(front) & ~FRESH;
+        }
+        return buffers[front];
+    }
+}
+
+
+/*
+    mouse moves from the AWT event thread go into a single-producer single-
+    consumer ring buffer. the game thread drains it once per tick and only
+    the last position counts, so any number of moves in between are
+    coalesced. when the ring is full a move is dropped, the next one will
+    carry the pointer to where it is anyway
+*/
+
+final class MouseInputQueue extends MouseAdapter implements PlayerInput {
+    
+    private final long[] moves; // packed pointer positions
+    private final int mask;
+    private final AtomicLong head = new AtomicLong(); // next to read
+    private final AtomicLong tail = new AtomicLong(); // next to write
+    
+    MouseInputQueue(int capacity) {
+        if (Integer.bitCount(capacity) != 1)
+            throw new IllegalArgumentException("Capacity must be a power of two");
+        moves = new long[capacity];
+        mask = capacity - 1;
+    }
+    
+    @Override
+    public void mouseMoved(MouseEvent event) {
+        offer(event.getX(), event.getY());
+    }
+    
+    // called by the producer thread only
+    boolean offer(int x, int y) {
+        long t = tail.get();
+        if (t - head.get() == moves.length) return false; // full
+        moves[(int) t & mask] = PlayerInput.pack(x, y);
+        tail.lazySet(t + 1); // publishes the move
+        return true;
+    }
+    
+    // called by the consumer thread only
+    @Override
+    public long poll(long tick) {
+        long h = head.get(), t = tail.get();
+        if (h == t) return NONE;
+        long last = moves[(int) (t - 1) & mask];
+        head.lazySet(t); // frees the slots
+        return last;
     }
 }
 
 
 class GameHelper {
     
-    private final GameWindow window;    
+    private final ScoreBoard window;    
+    private final EntityStore store; // state of every entity in the game
     private final Player player;
     // circuler queue to store Blocks
     private final BlockQueue mesh; 
@@ -125,51 +659,96 @@ class GameHelper {
             height, 
             blockWidth,
             pairs, 
-            minBlockHeight, 
-            passingGap;
-    private int score = 0, lives = 3;
+            minBlockHeight;
+    private int score = 0, lives;
+    private final boolean bruteForceCollision;
+    private final boolean sweptCollision;
+    private final int blockStep; // how far the blocks move each tick
+    private final CollisionKernel kernel; // batch collision, or null
+    private final long[] hits; // the kernel's hit mask, a bit per store slot
+    private final int blockBase; // store slot of the block in ring slot 0
+    private final LevelGenerator level; // where the gaps of the pairs go
+    private final SpriteCache sprites = new SpriteCache(64);
+    private final GameConfig config; // what the world was made with
+    private EventJournal.Writer events; // null unless journaling
     
-    public GameHelper(GameWindow window) {
+    public GameHelper(GameConfig config, ScoreBoard window) {
         this.window = window;
-        this.window.updateScore(score); // updates the score label
-        this.window.updateLives(lives); // updates the lives label
-        width = window.getSize().width;
-        height = window.getSize().height;
-        blockWidth = 60;
-        pairs = 6;
-        minBlockHeight = 100;
-        passingGap = 100;
-        player = new Player(width/2, height/2);
+        this.config = config;
+        this.lives = config.lives;
+        this.window.updateScore(score);
+        this.window.updateLives(lives);
+        width = config.width;
+        height = config.height;
+        blockWidth = config.blockWidth;
+        pairs = config.pairs;
+        minBlockHeight = config.minBlockHeight;
+        bruteForceCollision = config.bruteForceCollision;
+        sweptCollision = config.sweptCollision;
+        // the blocks cross the screen at the same speed whatever the tick
+        // rate, 4 pixels a tick at 60 a second, rounded to whole pixels so
+        // every block moves exactly as far
+        blockStep = Math.max(1, Math.round(4f * 60 / config.tickRate));
+        kernel = config.batchCollision ? CollisionKernel.load() : null;
+        level = new LevelGenerator(config);
+        store = new EntityStore(pairs * 2 + 1);
+        hits = (kernel == null) ? null : new long[(pairs * 2 + 1 + 63) / 64];
+        // the ball stays inside the world
+        player = new Player(store, width/2, height/2, width, height);
         mesh = new BlockQueue(pairs * 2);
-        player.setBounds(width, height); // boundry of the player (ball)
+        player.remember();
         
-        // creating Block when the game starts
+        // creating Block when the game starts. these are the only blocks
+        // the game ever makes, rellocate() reuses them. they take store
+        // slots in the order they are enqueued, and since a relocated block
+        // goes back into the ring slot it left, ring slot k always holds
+        // the block in store slot blockBase + k
+        blockBase = store.count;
         for (int i = 0; i < pairs; i++) {
-            Block top, bottom; // two blocks of a pair
+            // two blocks of a pair
+            Block top = new Block(store), bottom = new Block(store);
+            top.setVelocity(-blockStep, 0f);
+            bottom.setVelocity(-blockStep, 0f);
             
             // the desired X coordinate of the block
             int x = width + i * (width + blockWidth)/pairs;
-            // height of the top block
-            int topHeight = new Random().nextInt(height/2) + minBlockHeight;
-            // the first two are arguments are the position and the other two
-            // are size of the block
-            top = new Block(x, -Block.OFF_SET, blockWidth, topHeight);
-            
-            // relative Y coordinate of the second block of the pair 
-            int y = top.getSize().height - Block.OFF_SET + passingGap;
-            int bottomHeight = height + Block.OFF_SET - y;
-            bottom = new Block(x, y, blockWidth, bottomHeight);
+            place(top, bottom, x);
             
             // both blocks are enqueued 
             mesh.enqueue(top);
             mesh.enqueue(bottom);
         }
     }
-    // check whether the player is hitting any Blocks on the screen
+    
+    /*
+        check whether the player is hitting any Blocks on the screen.
+        the queue keeps the pairs sorted by x (rellocate always enqueues to
+        the right of the last pair), so it doubles as a sweep-and-prune index:
+        a binary search finds the first pair that reaches the player's column
+        and only the pairs overlapping that column are tested
+    */
+    
     public boolean collision() {
-        LinkedList<Block> blocksMesh = mesh.select();
-        for (int i = 0; i < blocksMesh.size(); i += 2) {
-            if (player.hit(blocksMesh.get(i)) || player.hit(blocksMesh.get(i+1))) {
+        if (sweptCollision) return collisionSwept();
+        if (kernel != null) return collisionBatch();
+        if (bruteForceCollision) return collisionBruteForce();
+        int X = player.getX();
+        for (int i = mesh.firstPairReaching(X); i < mesh.pairs(); i++) {
+            Block top = mesh.top(i);
+            // this pair and every one after it are right of the player
+            if (top.getX() > X) break;
+            if (player.hit(top) || player.hit(mesh.bottom(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    // tests the player against every block. gives the same answers as
+    // collision(), it's kept so the two can be cross-checked
+    boolean collisionBruteForce() {
+        for (int i = 0; i < mesh.pairs(); i++) {
+            if (player.hit(mesh.top(i)) || player.hit(mesh.bottom(i))) {
                 // returns true if the player hits a block
                 return true;
             }
@@ -178,146 +757,468 @@ class GameHelper {
         return false;
     }
     
+    /*
+        tests the whole ball against the blocks over all the motion since the
+        previous test, the player's and the blocks', so nothing is missed
+        however far things moved in one tick: a low tick rate, a long catch
+        up or the pointer jumping across a block. the same x index narrows
+        the pairs down to the ones the ball's sweep overlaps, widened by one
+        block step since the blocks were that far right before. the block
+        the ball would have touched first stops being functional
+    */
+    
+    boolean collisionSwept() {
+        int from = Math.min(player.getPrevX(), player.getX());
+        int to = Math.max(player.getPrevX(), player.getX()) + player.getWidth();
+        Block first = null;
+        float earliest = Float.MAX_VALUE;
+        for (int i = mesh.firstPairReaching(from - blockStep); i < mesh.pairs(); i++) {
+            Block top = mesh.top(i), bottom = mesh.bottom(i);
+            // blocks only move left, so this pair never reached the sweep
+            if (top.getX() > to) break;
+            float t = player.sweep(top);
+            if (t >= 0 && t < earliest) {
+                earliest = t;
+                first = top;
+            }
+            t = player.sweep(bottom);
+            if (t >= 0 && t < earliest) {
+                earliest = t;
+                first = bottom;
+            }
+        }
+        if (first == null) return false;
+        first.setFunctional(false);
+        return true;
+    }
+    
+    /*
+        tests the player against every block at once with the collision
+        kernel, straight over the entity store, into a mask of the blocks
+        hit. the ring keeps the blocks in store order starting at its front
+        slot, so queue order is the slots from the front to the end followed
+        by the ones before the front. the first hit in that order is the
+        block hit() would have hit, and like hit() it stops being functional
+    */
+    
+    boolean collisionBatch() {
+        int front = blockBase + mesh.frontSlot(), end = blockBase + mesh.size();
+        if (!kernel.hits(player.getX(), player.getY(), store.x, store.y, store.width, 
+                store.height, store.flags, blockBase, end, hits)) return false;
+        int hit = CollisionKernel.firstSet(hits, front, end);
+        if (hit < 0) hit = CollisionKernel.firstSet(hits, blockBase, front);
+        store.flags[hit] &= ~EntityStore.FUNCTIONAL;
+        return true;
+    }
+    
     /*
         this method update block pairs and the score board
         it rellocates the pair of blocks that's about to go out of side on
-        the left side of the screen
+        the left side of the screen.
+        pairs are kept in x order, so only pairs at the front can be leaving
     */
     
     void updatePairs() {
-        for (int i = 0; i < mesh.select().size(); i += 2) {
-            Block b1 = mesh.select().get(i); // top block of the pair
-            Block b2 = mesh.select().get(i+1); // bottom block of the pair
-            if (b1 != null && b2 != null) {
-                if (b1.position.x < -b1.getSize().width/2 || 
-                        b2.position.x < -b2.getSize().width/2) {
-                    rellocate(); // rellocates the blocks
-                    // updates the score board (UI)
-                    this.window.updateScore(++this.score);
-                }
-                // both Blocks are updated
-                b1.update();
-                b2.update();            
+        int pairs = mesh.pairs(), relocated = 0;
+        while (relocated < pairs && leaving(mesh.top(0), mesh.bottom(0))) {
+            if (events != null) {
+                Block top = mesh.top(0);
+                events.write(EventJournal.PASS, score + 1, top.getY() + top.getHeight(), 
+                        mesh.bottom(0).getY(), 0);
             }
+            rellocate(); // rellocates the blocks
+            // updates the score board (UI)
+            this.window.updateScore(++this.score);
+            relocated++;
         }
+        // all Blocks are updated in one pass over the entity store, the
+        // freshly placed pairs at the rear start moving on the next tick
+        Systems.move(store);
     }
     
+    // true once either block of a pair is half way out on the left side
+    private boolean leaving(Block b1, Block b2) {
+        return b1.getX() < -b1.getWidth()/2 || 
+                b2.getX() < -b2.getWidth()/2;
+    }
     
-    private void rellocate() {
+    void rellocate() {
         // removes the first two blocks from the queue
-        mesh.dequeue();
-        mesh.dequeue();
+        Block top = mesh.dequeue();
+        Block bottom = mesh.dequeue();
         
-        // this is essentially what is written in the constructor
-        // it creates the second wave of block pairs
-        Block top, bottom;
-        
-        int x = mesh.getLast().getPosition().x + (width/pairs);
-        int topHeight = new Random().nextInt(height/2) + minBlockHeight;
-        top = new Block(x, -Block.OFF_SET, blockWidth, topHeight);
-        
-        int y = top.getSize().height - Block.OFF_SET + passingGap;
-        int bottomHeight = height + Block.OFF_SET - y;
-        bottom = new Block(x, y, blockWidth, bottomHeight);
+        // the same blocks come back as the next pair, to the right of the
+        // last one, so relocating doesn't allocate anything
+        int x = mesh.getLast().getX() + (width/pairs);
+        place(top, bottom, x);
+        top.setFresh();
+        bottom.setFresh();
         
-        // adding the newly created blocks to the end of the mesh
+        // adding the relocated blocks to the end of the mesh
         mesh.enqueue(top);
         mesh.enqueue(bottom);
     }
     
+    // sets up a pair of blocks at x around the next passing gap of the level
+    private void place(Block top, Block bottom, int x) {
+        int layout = level.next();
+        // height of the top block
+        int topHeight = LevelGenerator.topHeight(layout);
+        // the first two are arguments are the position and the other two
+        // are size of the block
+        top.reset(x, -Block.OFF_SET, blockWidth, topHeight);
+        
+        // relative Y coordinate of the second block of the pair 
+        int y = topHeight - Block.OFF_SET + LevelGenerator.gap(layout);
+        int bottomHeight = height + Block.OFF_SET - y;
+        bottom.reset(x, y, blockWidth, bottomHeight);
+        if (events != null) 
+            events.write(EventJournal.SPAWN, x, y - LevelGenerator.gap(layout), y, 0);
+    }
+    
     public void renderAll(Graphics gfx) {
+        renderAll(gfx, 1f);
+    }
+    
+    // alpha is how far between the previous and current update the blocks
+    // are drawn, 1 draws them where they are now
+    public void renderAll(Graphics gfx, float alpha) {
         // renders all the Blocks
-        renderBlocks(gfx);
+        renderBlocks(gfx, alpha);
         // render the Player on the screen
-        player.render(gfx);
+        player.render(gfx, sprites);
     }    
     
     public void updateAll() {
+        if (events != null) events.nextTick();
         if (collision()) {
             lives--;
+            if (events != null) {
+                journalHit();
+                // the tick the last life went, gameOver() below comes every tick
+                if (lives == 0) events.write(EventJournal.GAME_OVER, score, 0, 0, 0);
+            }
             // update the lives on the game screen
             window.updateLives(lives);
         }
         if (lives == 0) {
             // displays a prompt at the end of the game
-            window.raiseMsg("GAMEOVER\nScore: " + String.valueOf(score));
+            window.gameOver(score);
         } else if (lives > 0) {
             // updating all the pair
             updatePairs();
             // updating the player
             player.update();
+            // where the next swept test starts from
+            player.remember();
         }
     }
     
-    void renderBlocks(Graphics gfx) {
+    void renderBlocks(Graphics gfx, float alpha) {
         // iterate over all the blocks in the mesh (queue)
         // and renders them on the screen
-        for (int i = 0; i < mesh.select().size(); i++) {
-            Block selectedBlock = mesh.select().get(i);
-            if (selectedBlock != null) // just to be on the safe side
-                selectedBlock.render(gfx);
+        for (int i = 0; i < mesh.size(); i++) {
+            Block block = mesh.get(i);
+            // pairs are in x order, the rest are still off the right side
+            if (block.lerpX(alpha) >= width) break;
+            block.render(gfx, alpha, sprites);
         }
     }
     
+    // moves the player to where the pointer is, called on the game thread
+    // with whatever the input source polled for the tick
+    public void steer(long input) {
+        if (input != PlayerInput.NONE)
+            player.moveTo(PlayerInput.x(input), PlayerInput.y(input));
+    }
+    
+    public boolean isGameOver() {
+        return lives <= 0;
+    }
+    
+    public int getScore() {
+        return score;
+    }
+    
+    public int getLives() {
+        return lives;
+    }
+    
+    // the y of the middle of the passing gap of the first pair that reaches
+    // column x, or -1 when there is none. bots steer by it
+    int gapAhead(int x) {
+        int i = mesh.firstPairReaching(x);
+        if (i >= mesh.pairs()) return -1;
+        Block top = mesh.top(i), bottom = mesh.bottom(i);
+        return (top.getY() + top.getHeight() + bottom.getY()) / 2;
+    }
+    
+    // writes the events of the game to the writer from now on, starting
+    // with the pairs already in the world as spawned
+    void journal(EventJournal.Writer events) {
+        this.events = events;
+        for (int i = 0; i < mesh.pairs(); i++) {
+            Block top = mesh.top(i), bottom = mesh.bottom(i);
+            events.write(EventJournal.SPAWN, top.getX(), top.getY() + top.getHeight(), 
+                    bottom.getY(), 0);
+        }
+    }
+    
+    // the ball was hit, by the pair at its column
+    private void journalHit() {
+        int cx = player.getX() + player.getWidth() / 2;
+        int cy = player.getY() + player.getHeight() / 2;
+        int i = mesh.firstPairReaching(player.getX());
+        if (i >= mesh.pairs()) i = mesh.pairs() - 1;
+        Block top = mesh.top(i);
+        events.write(EventJournal.HIT, cx, cy, top.getY() + top.getHeight(), 
+                mesh.bottom(i).getY());
+    }
+    
+    // works the level out ahead on a background thread from now on, so
+    // relocating a pair only takes the layout that is ready for it
+    void generateAhead() {
+        level.start();
+    }
+    
+    GameConfig config() {
+        return config;
+    }
+    
+    // the blocks in queue order, front (left) first
+    int blockCount() {
+        return mesh.size();
+    }
+    
+    Block block(int i) {
+        return mesh.get(i);
+    }
+    
+    /*
+        writes everything about the world that changes as the game goes on:
+        the score and lives, how far the level has got, and every entity in
+        store order followed by the block ids in queue order. with the
+        config that is the whole game, see Checkpoint
+    */
+    
+    void save(ByteBuffer out) {
+        out.putInt(score).putInt(lives);
+        out.putLong(level.position());
+        out.putInt(store.idRegister);
+        out.putInt(mesh.frontSlot());
+        out.putInt(store.count);
+        for (int i = 0; i < store.count; i++) {
+            out.putInt(store.x[i]).putInt(store.y[i]);
+            out.putInt(store.prevX[i]).putInt(store.prevY[i]);
+            out.putInt(store.width[i]).putInt(store.height[i]);
+            out.putInt(store.flags[i]);
+        }
+        for (int i = 0; i < mesh.size(); i++) out.putInt(mesh.get(i).getID());
+    }
+    
+    // bytes save() writes for a world of the given settings
+    static int savedSize(GameConfig config) {
+        int entities = config.pairs * 2 + 1;
+        return 4 + 4 + 8 + 4 + 4 + 4 + entities * 7 * 4 + config.pairs * 2 * 4;
+    }
+    
+    // puts the world back the way save() found it. it has to be a world
+    // made with the same config, that hasn't been played yet
+    void restore(ByteBuffer in) {
+        score = in.getInt();
+        lives = in.getInt();
+        level.seek(in.getLong());
+        store.idRegister = in.getInt();
+        int front = in.getInt();
+        if (in.getInt() != store.count) throw new Error("Checkpoint doesn't fit this world");
+        for (int i = 0; i < store.count; i++) {
+            store.x[i] = in.getInt();
+            store.y[i] = in.getInt();
+            store.prevX[i] = in.getInt();
+            store.prevY[i] = in.getInt();
+            store.width[i] = in.getInt();
+            store.height[i] = in.getInt();
+            store.flags[i] = in.getInt();
+        }
+        // turning the full ring round keeps every block in its ring slot,
+        // so ring slot k still holds store slot blockBase + k
+        while (mesh.frontSlot() != front) mesh.enqueue(mesh.dequeue());
+        for (int i = 0; i < mesh.size(); i++) mesh.get(i).setID(in.getInt());
+        window.updateScore(score);
+        window.updateLives(lives);
+    }
+    
     public Player getPlayer() {
         return player;
     }
+    
+    // draws the sprites of the ball and of the blocks next to come on
+    // screen, at most limit of them, into the cache and once at the corner
+    // of gfx, so the first frames find them made. blocks off the screen
+    // count too, in a new world all of them are
+    void warmSprites(Graphics gfx, SpriteCache sprites, int limit) {
+        for (int i = 0; i < Math.min(mesh.size(), limit); i++) {
+            Block block = mesh.get(i);
+            Image sprite = sprites.get(Block.SPRITE, block.getWidth(), block.getHeight(), 
+                    block.color(), Block::paint);
+            if (sprite != null) gfx.drawImage(sprite, 0, 0, null);
+        }
+        player.render(gfx, sprites);
+    }
+    
+    // copies what a frame needs to draw into the snapshot
+    void snapshot(WorldSnapshot world, long time) {
+        world.ensureCapacity(mesh.size());
+        int n = 0;
+        for (int i = 0; i < mesh.size(); i++) {
+            Block block = mesh.get(i);
+            // pairs are in x order, the rest are still off the right side.
+            // a block is drawn between where it was and where it is, it's
+            // visible if either is
+            if (Math.min(block.getX(), block.getPrevX()) >= width) break;
+            world.x[n] = block.getX();
+            world.prevX[n] = block.getPrevX();
+            world.y[n] = block.getY();
+            world.width[n] = block.getWidth();
+            world.height[n] = block.getHeight();
+            world.id[n] = block.getID();
+            n++;
+        }
+        world.blocks = n;
+        world.playerX = player.getX();
+        world.playerY = player.getY();
+        world.playerWidth = player.getWidth();
+        world.playerHeight = player.getHeight();
+        world.score = score;
+        world.lives = lives;
+        world.time = time;
+    }
 }
 
-   
+
+/*
+    settings of a single game world. the defaults are the values the game
+    has always been played with
+*/
+
+class GameConfig {
+    int width = 800, height = 600;
+    int blockWidth = 60;
+    int pairs = 6;
+    int minBlockHeight = 100;
+    int passingGap = 100;
+    // the gap wanders up and down rather than jumping anywhere
+    boolean gapDrift = false;
+    // the gap narrows a pixel every gapRamp pairs, 0 keeps it as it is
+    int gapRamp = 0;
+    int minPassingGap = 50; // how narrow the ramp makes it
+    int lives = 3;
+    // seeds the generator for the block heights
+    long seed = new SplittableRandom().nextLong();
+    // test the player against every block instead of using the x index
+    boolean bruteForceCollision = false;
+    // test the player against every block in one batch with the
+    // CollisionKernel (SIMD when the Vector API is available)
+    boolean batchCollision = false;
+    // test the whole ball over its motion since the last tick, instead of
+    // its corner where it is now. needed below 60 ticks a second, where
+    // the blocks move far enough in a tick to jump over the corner
+    boolean sweptCollision = false;
+    // ticks a second. the blocks move further each tick at lower rates
+    int tickRate = 60;
+    
+    GameConfig() { }
+    
+    GameConfig(int width, int height) {
+        this.width = width;
+        this.height = height;
+    }
+}
 
 
+/*
+    whatever shows the score and lives to the player. the GameWindow is the
+    only real one, headless games use NONE
+*/
+
+interface ScoreBoard {
+    
+    ScoreBoard NONE = new ScoreBoard() {
+        @Override public void updateScore(int score) { }
+        @Override public void updateLives(int lives) { }
+        @Override public void gameOver(int score) { }
+    };
+    
+    void updateScore(int score);
+    void updateLives(int lives);
+    void gameOver(int score);
+}
 
 
+/*
+    a source of pointer positions for the player, polled once per tick.
+    positions are packed into a single long so polling doesn't allocate
+*/
 
-class GameWindow extends JFrame {
+interface PlayerInput {
+    
+    long NONE = Long.MIN_VALUE; // the pointer didn't move during the tick
+    
+    PlayerInput IDLE = tick -> NONE;
+    
+    long poll(long tick);
+    
+    static long pack(int x, int y) {
+        return ((long) x << 32) | (y & 0xFFFFFFFFL);
+    }
+    
+    static int x(long input) {
+        return (int) (input >> 32);
+    }
     
-    // score board Labels
-    static final class StatusBar {
-        static JLabel score;
-        static JLabel lives;
-        static Font fonts;
+    static int y(long input) {
+        return (int) input;
     }
+}
+
+   
+
+
+
+
+
+/*
+    the window of the game. the score and lives are drawn on the canvas by
+    the Hud, the window only holds the canvas and raises the prompt at the
+    end of the game
+*/
+
+class GameWindow extends JFrame implements ScoreBoard {
     
     public GameWindow(int width, int height, String title, Game game) {
         setSize(new Dimension(width, height)); // set the size of the window
         setTitle(title);
         setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
         setResizable(true);
-        setVisible(true);
         setCursor(new Cursor(Cursor.HAND_CURSOR)); // setting cursor to hand
         
-        StatusBar.score = new JLabel();
-        StatusBar.lives = new JLabel();  
-        StatusBar.fonts = new Font("Serif", Font.BOLD, 18);
-        
-        // UI design of live label
-        StatusBar.lives.setSize(80, 18);
-        StatusBar.lives.setFont(StatusBar.fonts);
-        StatusBar.lives.setForeground(Color.RED);
-        StatusBar.lives.setLocation(width/2-StatusBar.lives.getSize().width, 0); 
-        StatusBar.lives.setBorder(BorderFactory.createDashedBorder(Color.BLACK));
-
-        // UI design of score label
-        StatusBar.score.setSize(80, 18);
-        StatusBar.score.setFont(StatusBar.fonts);
-        StatusBar.score.setLocation(width/2, 0); 
-        StatusBar.score.setForeground(Color.BLUE);
-        StatusBar.score.setBorder(BorderFactory.createDashedBorder(Color.BLACK));
-        
-        // add both labels to the window
-        add(StatusBar.lives);
-        add(StatusBar.score);
         // added the game Object to the window
         add(game);
+        // shown once everything is in, so it's laid out and painted once
+        setVisible(true);
     }    
 
-    public void updateLives(int lives) {
-        StatusBar.lives.setText("Lives: " + lives);
-    }
+    // the Hud reads them from the world every frame
+    @Override
+    public void updateLives(int lives) { }
     
-    public void updateScore(int score) {
-        StatusBar.score.setText("Score: " + score);
+    @Override
+    public void updateScore(int score) { }
+    
+    @Override
+    public void gameOver(int score) {
+        // displays a prompt at the end of the game
+        raiseMsg("GAMEOVER\nScore: " + String.valueOf(score));
     }
     
     // a util method for raise a pop up window
@@ -331,124 +1232,231 @@ class GameWindow extends JFrame {
 
 
 
-class BlockQueue { 
+class BlockQueue implements Iterable<Block> { 
   
     private final int size; // max size of the queue
-    private int front, rear; // front & rear of the queue
-    private final LinkedList<Block> mesh; // list for storing block objects
+    private int front, count; // physical index of the front & number of blocks
+    private final Block[] mesh; // ring buffer for storing block objects
+    private final FrontToRear cursor; // reusable front-to-rear iterator
 
     BlockQueue(int size) {
-        mesh = new LinkedList<>();
+        mesh = new Block[size];
         this.size = size; 
-        this.front = -1;
-        this.rear = -1; 
+        this.front = 0;
+        this.count = 0; 
+        this.cursor = new FrontToRear();
     } 
 
     public boolean enqueue(Block data) { // adding a block at the end of queue
-
-        if((front == 0 && rear == size - 1) || // if the queue is full
-                (rear == (front - 1) % (size - 1))) { 
+        if (count == size) { // if the queue is full
             throw new Error("Queue is at full capacity");
-        } else if(front == -1) { // first entry of the queue
-            front = 0; 
-            rear = 0; 
-            mesh.add(rear, data); // stores data at index rear
-        } else if(rear == size - 1 && front != 0) { 
-            rear = 0; 
-            mesh.set(rear, data);
-        } else { 
-            rear = (rear + 1); 
-            if(front <= rear) { 
-                mesh.add(rear, data); 
-            } else { 
-                mesh.set(rear, data); 
-            } 
-        } 
+        }
+        // the rear slot is the first free slot after the front, wrapping around
+        mesh[physical(count)] = data;
+        count++;
         // returns true only when the queue is not full, and not error occurs
         // during storing of blocks in the queue
         return true;
     } 
 
     public Block dequeue() { // removing the first block from the queue
-        Block temp; // the object that will be returned from the method
-
         // don't wanna be dequeueing an empty queue
-        if(front == -1)  { 
+        if (count == 0)  { 
             System.out.print("Queue is Empty"); 
             return null;  
         } 
 
-        temp = mesh.get(front);// stores the first Block in variable temp
-        mesh.set(front, null); // set that position to null (empty)
-        if(front == rear) { 
-            front = -1; 
-            rear = -1; 
-        } else if(front == size - 1) { 
-            front = 0; 
-        } else { 
-            front = front + 1; 
-        } 
+        Block temp = mesh[front]; // stores the first Block in variable temp
+        mesh[front] = null; // set that position to null (empty)
+        front = (front + 1 == size) ? 0 : front + 1;
+        count--;
         return temp; 
     } 
     
-    // returns the linked list. it is used for iteration purpose in
-    // the GameHelper class
-    public LinkedList<Block> select() {
-        return this.mesh;
+    // maps a logical index (0 is the front) to a slot of the ring buffer
+    private int physical(int index) {
+        int slot = front + index;
+        return (slot >= size) ? slot - size : slot;
+    }
+    
+    // returns the block at the given position counting from the front,
+    // in constant time
+    public Block get(int index) {
+        if (index < 0 || index >= count)
+            throw new IndexOutOfBoundsException("Index: " + index);
+        return mesh[physical(index)];
+    }
+    
+    // number of blocks currently in the queue
+    public int size() {
+        return count;
+    }
+    
+    // blocks are always enqueued two at a time (top, bottom), so the queue
+    // can also be addressed pair by pair
+    public int pairs() {
+        return count >> 1;
+    }
+    
+    // returns the top block of the pair-th pair from the front
+    public Block top(int pair) {
+        return get(pair << 1);
+    }
+    
+    // returns the bottom block of the pair-th pair from the front
+    public Block bottom(int pair) {
+        return get((pair << 1) + 1);
+    }
+    
+    /*
+        returns the index of the first pair whose right edge is at or past x,
+        or pairs() if there is none. pairs are enqueued in x order and all
+        blocks are equally wide, so the right edges are sorted and a binary
+        search is enough
+    */
+    
+    public int firstPairReaching(int x) {
+        int lo = 0, hi = pairs();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            Block top = top(mid);
+            if (top.getX() + top.getWidth() < x) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+    
+    // the slot of the ring buffer the front block is stored in
+    int frontSlot() {
+        return front;
     }
     
     // returns the last Block of the queue
     public Block getLast() {
-        return mesh.get(rear);
+        return (count == 0) ? null : mesh[physical(count - 1)];
+    }
+    
+    /*
+        iterates the queue from front to rear. the same iterator object is
+        handed out on every call so iterating doesn't allocate, which means
+        only one iteration can be in progress at a time
+    */
+    
+    @Override
+    public Iterator<Block> iterator() {
+        cursor.next = 0;
+        return cursor;
+    }
+    
+    private final class FrontToRear implements Iterator<Block> {
+        int next;
+        
+        @Override
+        public boolean hasNext() {
+            return next < count;
+        }
+        
+        @Override
+        public Block next() {
+            if (next >= count) throw new NoSuchElementException();
+            return mesh[physical(next++)];
+        }
     }
 }
 
 
 class Block extends GameObject {
     
-    private static int ID_REGISTER = 0; // unique id provider
     public static int OFF_SET = 30;
-    private final int id;
-    private boolean functional; // if false acts as a dummy block
+    static final int SPRITE = 1; // kind of sprite in the SpriteCache
+    private int id;
   
-    public Block(int x, int y, int w, int h) {
-        super();
-        this.id = ID_REGISTER++; // assign id and increments ID_REGISTER by 1
-        size = new Size(w, h);
-        velocity = new Velocity(4f, 4f);
-        position = new Position(x, y);
-        functional = true;
+    // a block with no place yet, it gets one (and an id) from reset()
+    Block(EntityStore store) {
+        super(store, EntityStore.BLOCK);
+        setVelocity(-4f, 0f); // moving to the left
+        store.flags[slot] |= EntityStore.MOVING;
+    }
+    
+    Block(EntityStore store, int x, int y, int w, int h) {
+        this(store);
+        reset(x, y, w, h);
+    }
+    
+    // turns the block into a new one at the given place, without allocating
+    void reset(int x, int y, int w, int h) {
+        // assign id and increments the world's id register by 1
+        this.id = store.idRegister++;
+        setSize(w, h);
+        setPosition(x, y);
+        setFunctional(true);
+        remember();
     }
     
     int getID() {
         return id;
     }
     
+    void setID(int id) {
+        this.id = id;
+    }
+    
+    // if false acts as a dummy block
     boolean isFunctional() {
-        return functional;
+        return (store.flags[slot] & EntityStore.FUNCTIONAL) != 0;
     }
     
     void setFunctional(boolean mode) {
-        functional = mode;
+        if (mode) store.flags[slot] |= EntityStore.FUNCTIONAL;
+        else store.flags[slot] &= ~EntityStore.FUNCTIONAL;
+    }
+    
+    // the block was just placed, it sits still for the rest of the tick
+    void setFresh() {
+        store.flags[slot] |= EntityStore.FRESH;
     }
     
+    // moves this one block. the game moves all of them at once with
+    // Systems.move(), which does the same thing
     @Override
     public void update() {
+        remember(); // where the block was, for interpolation
         // moving to the left
-        position.x -= velocity.dx;
+        store.x[slot] += store.dx[slot];
     }
 
     @Override
     public void render(Graphics gfx) {
-        // if the id is an even number the block should be colored CYAN,
-        // otherwise GREEN
-        gfx.setColor((getID() % 2 == 0) ? Color.CYAN : Color.GREEN);
+        render(gfx, 1f);
+    }
+    
+    @Override
+    protected void render(Graphics gfx, float alpha) {
+        paint(gfx, lerpX(alpha), lerpY(alpha), getWidth(), getHeight(), color());
+    }
+    
+    // draws the block from the sprite cache rather than rasterising it again
+    void render(Graphics gfx, float alpha, SpriteCache sprites) {
+        Image sprite = sprites.get(SPRITE, getWidth(), getHeight(), color(), 
+                Block::paint);
+        if (sprite == null) render(gfx, alpha);
+        else gfx.drawImage(sprite, lerpX(alpha), lerpY(alpha), null);
+    }
+    
+    // if the id is an even number the block should be colored CYAN,
+    // otherwise GREEN
+    Color color() {
+        return (getID() % 2 == 0) ? Color.CYAN : Color.GREEN;
+    }
+    
+    static void paint(Graphics gfx, int x, int y, int w, int h, Color color) {
+        gfx.setColor(color);
         // renders a rectangle at the given postion.
         gfx.fillRoundRect(
-            position.x,
-            position.y,
-            size.width,
-            size.height,
+            x,
+            y,
+            w,
+            h,
             60, // horizontal radius
             60 // vertical radius
         );
@@ -458,21 +1466,27 @@ class Block extends GameObject {
 
 class Player extends GameObject {
     
-    public Player(int x, int y) {
-        super();
-        position = new Position(x, y);
-        size = new Size(24, 24);
-        bounds = new Bounds(800, 600);
-        // defining user controls for Player
-        control = new Control() {
-            // the overriden method will be called every time with mouse move
-            @Override
-            public void mouseMoved(MouseEvent event) {
-                // sets ball position to mouse cursor position
-                position.x = event.getX()-size.width/2;
-                position.y = event.getY()-size.height/2;
-            }
-        };
+    static final int SPRITE = 2; // kind of sprite in the SpriteCache
+    private int maxWidth, maxHeight; // where the ball can go
+    
+    public Player(EntityStore store, int x, int y, int maxWidth, int maxHeight) {
+        super(store, EntityStore.PLAYER);
+        setPosition(x, y);
+        setSize(24, 24);
+        setBounds(maxWidth, maxHeight);
+        remember();
+        // the Player has no control of its own, mouse moves go through a
+        // MouseInputQueue so only the game thread ever moves the ball
+    }
+    
+    void setBounds(int width, int height) {
+        maxWidth = width;
+        maxHeight = height;
+    }
+    
+    // centers the ball on the given pointer position
+    void moveTo(int x, int y) {
+        setPosition(x-getWidth()/2, y-getHeight()/2);
     }
     
     
@@ -481,18 +1495,19 @@ class Player extends GameObject {
         the ball will stay inside the game window
     */
     
-    void checkBounds(Bounds bounds) {
-        if (position.x <= 0) { // left side bound checking
-            position.x = 0;
+    void checkBounds() {
+        int[] x = store.x, y = store.y;
+        if (x[slot] <= 0) { // left side bound checking
+            x[slot] = 0;
         }
-        if (position.y <= 0) { // top bound checking
-            position.y = 0;
+        if (y[slot] <= 0) { // top bound checking
+            y[slot] = 0;
         }
-        if (position.x >= bounds.maxWidth - size.width) { // right bound check
-            position.x = bounds.maxWidth - size.width;
+        if (x[slot] >= maxWidth - getWidth()) { // right bound check
+            x[slot] = maxWidth - getWidth();
         }
-        if (position.y >= bounds.maxHeight - size.height) {// bottom bound check
-            position.y = bounds.maxHeight - size.height;
+        if (y[slot] >= maxHeight - getHeight()) {// bottom bound check
+            y[slot] = maxHeight - getHeight();
         }
     } 
     
@@ -504,15 +1519,15 @@ class Player extends GameObject {
     public boolean hit(Block block) {
         if (block == null) return false;
         
-        int X = position.x;
-        int Y = position.y;
+        int X = getX();
+        int Y = getY();
         
         // if the functional field is true + geometric horizontal checks
-        if (block.isFunctional() && X >= block.position.x) {
-            if (X <= block.position.x + block.getSize().width) {
+        if (block.isFunctional() && X >= block.getX()) {
+            if (X <= block.getX() + block.getWidth()) {
                 // vertical boundry check
-                if (Y >= block.position.y) {
-                    if (Y <= block.position.y + block.getSize().height) {
+                if (Y >= block.getY()) {
+                    if (Y <= block.getY() + block.getHeight()) {
                         // if all the statement above evaluates to true
                         // then it mean the Player is hitting a block
                         // that blocks is set to not functional
@@ -525,110 +1540,619 @@ class Player extends GameObject {
         return false; // if doesn't collide
     }
     
+    /*
+        the swept version of hit(). relative to the block, the ball's corner
+        moved along a segment since the last test, from where it was (less
+        however far the block moved) to where it is now. the whole ball
+        touched the block if that segment crosses the block grown by the
+        size of the ball, edges included like in hit(). returns how far
+        along the segment (0 to 1) it first touched, or -1 if it didn't.
+        unlike hit() the block is left functional, the caller picks which
+        of the blocks touched was hit first
+    */
+    
+    float sweep(Block block) {
+        if (block == null || !block.isFunctional()) return -1;
+        float left = block.getX() - getWidth(), right = block.getX() + block.getWidth();
+        float top = block.getY() - getHeight(), bottom = block.getY() + block.getHeight();
+        float x0 = getPrevX() - (block.getPrevX() - block.getX());
+        float y0 = getPrevY() - (block.getPrevY() - block.getY());
+        float dx = getX() - x0, dy = getY() - y0;
+        float enter = 0, exit = 1;
+        // the part of the segment between the left and right edges
+        if (dx == 0) {
+            if (x0 < left || x0 > right) return -1;
+        } else {
+            float t1 = (left - x0) / dx, t2 = (right - x0) / dx;
+            enter = Math.max(enter, Math.min(t1, t2));
+            exit = Math.min(exit, Math.max(t1, t2));
+        }
+        // and between the top and bottom ones
+        if (dy == 0) {
+            if (y0 < top || y0 > bottom) return -1;
+        } else {
+            float t1 = (top - y0) / dy, t2 = (bottom - y0) / dy;
+            enter = Math.max(enter, Math.min(t1, t2));
+            exit = Math.min(exit, Math.max(t1, t2));
+        }
+        return (enter <= exit) ? enter : -1;
+    }
+    
     @Override
     public void update() {
         // checks if the ball is in the boundry
-        checkBounds(bounds);
+        checkBounds();
     }
 
+    // the ball follows the pointer in between updates, so it is drawn where
+    // it is rather than interpolated like the blocks
     @Override
     public void render(Graphics gfx) {
+        paint(gfx, getX(), getY(), getWidth(), getHeight(), Color.ORANGE);
+    }
+    
+    // blits the ball from the sprite cache
+    void render(Graphics gfx, SpriteCache sprites) {
+        Image sprite = sprites.get(SPRITE, getWidth(), getHeight(), Color.ORANGE,
+                Player::paint);
+        if (sprite == null) render(gfx);
+        else gfx.drawImage(sprite, getX(), getY(), null);
+    }
+    
+    static void paint(Graphics gfx, int x, int y, int w, int h, Color color) {
         // drawing three nested circles inside one another, with different size
         // and colors
-        gfx.setColor(Color.ORANGE);
-        gfx.fillOval(position.x , position.y, size.width, size.height);
+        gfx.setColor(color);
+        gfx.fillOval(x , y, w, h);
 
         gfx.setColor(Color.GREEN);
-        gfx.fillOval(position.x+3, position.y+3, size.width-6, size.height-6);
+        gfx.fillOval(x+3, y+3, w-6, h-6);
         
         gfx.setColor(Color.CYAN);
-        gfx.fillOval(position.x+6, position.y+6, size.width-12, size.height-12);
+        gfx.fillOval(x+6, y+6, w-12, h-12);
 
     }
 }
 
 
 /*
-
-    the GameObject class is an abstract class, defining all the necessery
-    properties for other game components (Player, Block).
-    the abstract fields inside the class needs to initalized in the class
-    extending the GameObject
+    the Viewport draws the world at a fixed internal resolution, the size of
+    the world, into an offscreen VolatileImage and stretches that onto the
+    canvas in one blit, keeping its shape with bars either side. however big
+    the window gets, filling the world costs the same, only the blit grows.
+    pointer positions on the canvas map back into the world through the
+    same transform with toWorldX/Y.
+    
+    with dynamic resolution the world is drawn at a fraction of the internal
+    resolution while frames take longer than the budget, and the fraction
+    creeps back up once they are quick again. the image keeps its size, only
+    its top left corner is drawn and blitted, so nothing is reallocated
 */
 
-
-abstract class GameObject {
+final class Viewport {
+    
+    private static final float MIN_SCALE = 0.5f;
+    private static final int SETTLE = 15; // frames between two adjustments
+    
+    private final int width, height; // the world, in pixels
+    private final boolean dynamic;
+    private final long budget; // nanoseconds a frame may take
+    private VolatileImage image;
+    private float scale = 1f; // of the internal resolution
+    private long average; // time to draw a frame, smoothed
+    private int frames; // since the last adjustment
+    
+    Viewport(int width, int height, boolean dynamic, long budget) {
+        this.width = width;
+        this.height = height;
+        this.dynamic = dynamic;
+        this.budget = budget;
+    }
+    
+    // canvas pixels per world pixel
+    private double zoom(int canvasWidth, int canvasHeight) {
+        return Math.min((double) canvasWidth / width, (double) canvasHeight / height);
+    }
+    
+    int toWorldX(int x, int canvasWidth, int canvasHeight) {
+        double zoom = zoom(canvasWidth, canvasHeight);
+        return (int) Math.floor((x - (canvasWidth - width * zoom) / 2) / zoom);
+    }
     
-    protected class Position { 
-        int x, y; 
-        Position(int x, int y) {
-            this.x = x; this.y = y;
+    int toWorldY(int y, int canvasWidth, int canvasHeight) {
+        double zoom = zoom(canvasWidth, canvasHeight);
+        return (int) Math.floor((y - (canvasHeight - height * zoom) / 2) / zoom);
+    }
+    
+    private int drawnWidth() {
+        return Math.max(1, Math.round(width * scale));
+    }
+    
+    private int drawnHeight() {
+        return Math.max(1, Math.round(height * scale));
+    }
+    
+    // graphics that draw the world into the image in world coordinates,
+    // or null when the canvas can't make images yet
+    Graphics2D begin(Canvas canvas) {
+        if (image == null || image.validate(canvas.getGraphicsConfiguration()) 
+                == VolatileImage.IMAGE_INCOMPATIBLE) {
+            if (image != null) image.flush();
+            image = canvas.createVolatileImage(width, height);
+            if (image == null) return null;
+        }
+        Graphics2D gfx = image.createGraphics();
+        gfx.clipRect(0, 0, drawnWidth(), drawnHeight());
+        gfx.scale((double) drawnWidth() / width, (double) drawnHeight() / height);
+        return gfx;
+    }
+    
+    // stretches what was drawn over the canvas, with bars where the shapes
+    // of the two differ
+    void blit(Graphics gfx, int canvasWidth, int canvasHeight) {
+        double zoom = zoom(canvasWidth, canvasHeight);
+        int w = (int) Math.round(width * zoom), h = (int) Math.round(height * zoom);
+        int x = (canvasWidth - w) / 2, y = (canvasHeight - h) / 2;
+        gfx.setColor(Color.BLACK);
+        gfx.fillRect(0, 0, canvasWidth, y);
+        gfx.fillRect(0, y + h, canvasWidth, canvasHeight - y - h);
+        gfx.fillRect(0, y, x, h);
+        gfx.fillRect(x + w, y, canvasWidth - x - w, h);
+        if (gfx instanceof Graphics2D) {
+            ((Graphics2D) gfx).setRenderingHint(RenderingHints.KEY_INTERPOLATION, 
+                    RenderingHints.VALUE_INTERPOLATION_BILINEAR);
         }
+        gfx.drawImage(image, x, y, x + w, y + h, 0, 0, drawnWidth(), drawnHeight(), null);
+    }
+    
+    // a frame took this long to draw. lowers or raises the resolution when
+    // that's been over or well under the budget for a while
+    void frame(long nanos) {
+        if (!dynamic) return;
+        average += (nanos - average) / 8;
+        if (++frames < SETTLE) return;
+        if (average > budget * 9 / 10 && scale > MIN_SCALE) {
+            scale = Math.max(MIN_SCALE, scale - 0.1f);
+            frames = 0;
+        } else if (average < budget / 2 && scale < 1f) {
+            scale = Math.min(1f, scale + 0.05f);
+            frames = 0;
+        }
+    }
+    
+    float scale() {
+        return scale;
     }
-    protected class Velocity { 
-        float dx, dy; 
-        Velocity(float dx, float dy) {
-            this.dx = dx; this.dy = dy;
+}
+
+
+/*
+    the Hud draws the score and lives straight into the frame, in the same
+    boxes the status bar labels had. every piece of text it needs (the two
+    captions and the ten digits in both colors) is rasterised once, so a
+    frame only blits images and never builds a string
+*/
+
+class Hud {
+    
+    static final Font FONT = new Font("Serif", Font.BOLD, 18);
+    static final int BOX_HEIGHT = 18;
+    
+    private Image box, livesCaption, scoreCaption;
+    private final Image[] livesDigits = new Image[10], scoreDigits = new Image[10];
+    private int digitWidth, boxWidth = 80;
+    
+    void draw(Graphics gfx, int score, int lives, int width) {
+        if (box == null) rasterise();
+        int x = width/2 - boxWidth;
+        gfx.drawImage(box, x, 0, null);
+        gfx.drawImage(livesCaption, x + 2, 0, null);
+        drawNumber(gfx, lives, livesDigits, x + 2 + livesCaption.getWidth(null));
+        x = width/2;
+        gfx.drawImage(box, x, 0, null);
+        gfx.drawImage(scoreCaption, x + 2, 0, null);
+        drawNumber(gfx, score, scoreDigits, x + 2 + scoreCaption.getWidth(null));
+    }
+    
+    private void drawNumber(Graphics gfx, int n, Image[] digits, int x) {
+        n = Math.max(0, n);
+        int length = 1;
+        for (int rest = n / 10; rest > 0; rest /= 10) length++;
+        // right to left, so the digits come out without a string
+        for (int i = length - 1; i >= 0; i--, n /= 10) {
+            gfx.drawImage(digits[n % 10], x + i * digitWidth, 0, null);
         }
     }
-    protected class Size {
-        int width, height;
-        Size(int width, int height) {
-            this.width = width; this.height = height;
+    
+    private void rasterise() {
+        BufferedImage scratch = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D measure = scratch.createGraphics();
+        FontMetrics metrics = measure.getFontMetrics(FONT);
+        measure.dispose();
+        for (int d = 0; d < 10; d++) {
+            digitWidth = Math.max(digitWidth, metrics.charWidth('0' + d));
         }
+        for (int d = 0; d < 10; d++) {
+            livesDigits[d] = text(String.valueOf(d), Color.RED, metrics, digitWidth);
+            scoreDigits[d] = text(String.valueOf(d), Color.BLUE, metrics, digitWidth);
+        }
+        livesCaption = text("Lives: ", Color.RED, metrics, 0);
+        scoreCaption = text("Score: ", Color.BLUE, metrics, 0);
+        // wide enough for a five digit score
+        boxWidth = Math.max(boxWidth, 
+                4 + scoreCaption.getWidth(null) + 5 * digitWidth);
+        
+        BufferedImage image = compatible(boxWidth, BOX_HEIGHT);
+        Graphics2D gfx = image.createGraphics();
+        gfx.setColor(Color.BLACK);
+        gfx.setStroke(new BasicStroke(1f, BasicStroke.CAP_SQUARE, 
+                BasicStroke.JOIN_MITER, 10f, new float[] { 2f, 2f }, 0f));
+        gfx.drawRect(0, 0, boxWidth - 1, BOX_HEIGHT - 1);
+        gfx.dispose();
+        box = image;
     }
     
-    protected class Bounds {
-        int maxWidth, maxHeight;
-        Bounds(int maxWidth, int maxHeight) {
-            this.maxWidth = maxWidth; this.maxHeight = maxHeight;
+    private static Image text(String text, Color color, FontMetrics metrics, int width) {
+        BufferedImage image = compatible(Math.max(width, metrics.stringWidth(text)), 
+                BOX_HEIGHT);
+        Graphics2D gfx = image.createGraphics();
+        gfx.setFont(FONT);
+        gfx.setColor(color);
+        gfx.drawString(text, 0, (BOX_HEIGHT + metrics.getAscent() - metrics.getDescent()) / 2);
+        gfx.dispose();
+        return image;
+    }
+    
+    private static BufferedImage compatible(int w, int h) {
+        if (GraphicsEnvironment.isHeadless())
+            return new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+        return GraphicsEnvironment.getLocalGraphicsEnvironment()
+                .getDefaultScreenDevice().getDefaultConfiguration()
+                .createCompatibleImage(w, h, Transparency.BITMASK);
+    }
+}
+
+
+/*
+    the SpriteCache rasterises a shape once into an image the graphics card
+    can keep (a compatible image, which Java2D accelerates) and hands the
+    image out again every time the same shape is drawn, so a frame is mostly
+    blits. sprites are keyed by (kind, width, height, color). when the cache
+    is full the least recently used sprite is evicted, block heights vary a
+    lot so old ones have to make room
+*/
+
+class SpriteCache {
+    
+    interface Painter {
+        void paint(Graphics gfx, int x, int y, int w, int h, Color color);
+    }
+    
+    private static final int MAX_SIDE = (1 << 14) - 1; // biggest cached side
+    
+    private final long[] keys; // packed kind, width, height and color
+    private final Image[] sprites; 
+    private final long[] used; // when each sprite was last handed out
+    private int count;
+    private long clock;
+    
+    SpriteCache(int capacity) {
+        keys = new long[capacity];
+        sprites = new Image[capacity];
+        used = new long[capacity];
+    }
+    
+    // sprites kept at most
+    int capacity() {
+        return keys.length;
+    }
+    
+    // returns the sprite of the shape, drawing it with the painter first if
+    // it isn't cached. returns null for shapes too big or too small to cache
+    Image get(int kind, int w, int h, Color color, Painter painter) {
+        if (w <= 0 || h <= 0 || w > MAX_SIDE || h > MAX_SIDE) return null;
+        long key = (long) kind << 60 | (long) w << 46 | (long) h << 32 
+                | (color.getRGB() & 0xFFFFFFFFL);
+        clock++;
+        for (int i = 0; i < count; i++) {
+            if (keys[i] == key) {
+                used[i] = clock;
+                return sprites[i];
+            }
         }
+        int slot = (count < keys.length) ? count++ : leastRecentlyUsed();
+        if (sprites[slot] != null) sprites[slot].flush(); // frees the surface
+        keys[slot] = key;
+        used[slot] = clock;
+        sprites[slot] = rasterise(w, h, color, painter);
+        return sprites[slot];
     }
     
-    protected abstract class Control extends MouseAdapter {};
+    private int leastRecentlyUsed() {
+        int oldest = 0;
+        for (int i = 1; i < count; i++) {
+            if (used[i] < used[oldest]) oldest = i;
+        }
+        return oldest;
+    }
     
-    protected Position position;
-    protected Velocity velocity;
-    protected Control control;
-    protected Size size;
-    protected Bounds bounds;
+    private static Image rasterise(int w, int h, Color color, Painter painter) {
+        BufferedImage image;
+        if (GraphicsEnvironment.isHeadless()) {
+            image = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+        } else {
+            image = GraphicsEnvironment.getLocalGraphicsEnvironment()
+                    .getDefaultScreenDevice().getDefaultConfiguration()
+                    .createCompatibleImage(w, h, Transparency.BITMASK);
+        }
+        Graphics gfx = image.createGraphics();
+        painter.paint(gfx, 0, 0, w, h, color);
+        gfx.dispose();
+        return image;
+    }
+}
+
+
+/*
 
+    the GameObject class is an abstract class, defining all the necessery
+    properties for other game components (Player, Block).
+    a GameObject doesn't hold its own state: its position, velocity, size
+    and flags live in one slot of an EntityStore, and the object is a view
+    of that slot. game code can use the objects, while systems that touch
+    every entity run straight over the store's arrays
+*/
+
+
+abstract class GameObject {
+    
+    protected final EntityStore store;
+    protected final int slot; // where this object lives in the store
+    
+    protected GameObject(EntityStore store, byte kind) {
+        this.store = store;
+        this.slot = store.create(kind);
+    }
         
     void setPosition(int x, int y) {
-        if (position == null)
-            throw new Error("Property not initialized");
-        position.x = x; 
-        position.y = y;
+        store.x[slot] = x; 
+        store.y[slot] = y;
     }
     
     void setSize(int width, int height) {
-        if (size == null)
-            throw new Error("Property not initialized");
-        size.width = width;
-        size.height = height;
+        store.width[slot] = width;
+        store.height[slot] = height;
     }
     
     void setVelocity(float dx, float dy) {
-        if (velocity != null)
-            throw new Error("Property not initialized");
-        velocity.dx = dx;
-        velocity.dy = dy;
+        store.dx[slot] = dx;
+        store.dy[slot] = dy;
     } 
     
-    void setBounds(int width, int height) {
-        if (bounds == null)
-            throw new Error("Property not initialized");
-        bounds.maxWidth = width;
-        bounds.maxHeight = height;
+    int getX() { return store.x[slot]; }
+    int getY() { return store.y[slot]; }
+    int getPrevX() { return store.prevX[slot]; }
+    int getPrevY() { return store.prevY[slot]; }
+    int getWidth() { return store.width[slot]; }
+    int getHeight() { return store.height[slot]; }
+    float getDx() { return store.dx[slot]; }
+    float getDy() { return store.dy[slot]; }
+    
+    
+    // keeps the current position as the previous one
+    void remember() {
+        store.prevX[slot] = store.x[slot];
+        store.prevY[slot] = store.y[slot];
     }
     
-    Position getPosition() { return position; }
-    Velocity getVelocity() { return velocity; }
-    Control getControl() { return control; }
-    Size getSize() { return size; }
-    Bounds getBounds() { return bounds; }
+    // the position alpha of the way from the previous to the current one
+    int lerpX(float alpha) {
+        int prevX = store.prevX[slot];
+        return prevX + Math.round((store.x[slot] - prevX) * alpha);
+    }
     
+    int lerpY(float alpha) {
+        int prevY = store.prevY[slot];
+        return prevY + Math.round((store.y[slot] - prevY) * alpha);
+    }
     
     protected abstract void update();    
     protected abstract void render(Graphics gfx);
-}
\ No newline at end of file
+    
+    // draws the object in between its previous and current position.
+    // objects that aren't interpolated just draw where they are
+    protected void render(Graphics gfx, float alpha) {
+        render(gfx);
+    }
+}
+
+
+/*
+    the EntityStore keeps the state of every game object in parallel
+    primitive arrays, one slot per entity: position, the position before
+    the last update, size, velocity, kind and flags. there is no object per
+    entity, so tens of thousands of them cost a few bytes each and a loop
+    over them walks straight through memory. slots of destroyed entities
+    are reused, the arrays only grow when every slot is taken
+*/
+
+final class EntityStore {
+    
+    // kinds of entity
+    static final byte PLAYER = 1, BLOCK = 2;
+    
+    // flags
+    static final int ACTIVE = 1; // the slot is in use
+    static final int MOVING = 2; // Systems.move() moves it by its velocity
+    static final int FUNCTIONAL = 4; // a block that can still be hit
+    static final int FRESH = 8; // placed this tick, starts moving next tick
+    
+    int count; // slots handed out so far, the rest are unused
+    int idRegister; // unique id provider for the blocks of this world
+    int[] x, y, prevX, prevY, width, height, flags;
+    float[] dx, dy;
+    byte[] kind;
+    private int[] free; // destroyed slots, to be handed out again
+    private int freeCount;
+    
+    EntityStore(int capacity) {
+        capacity = Math.max(capacity, 1);
+        x = new int[capacity];
+        y = new int[capacity];
+        prevX = new int[capacity];
+        prevY = new int[capacity];
+        width = new int[capacity];
+        height = new int[capacity];
+        flags = new int[capacity];
+        dx = new float[capacity];
+        dy = new float[capacity];
+        kind = new byte[capacity];
+        free = new int[capacity];
+    }
+    
+    // takes a slot for a new entity, all of its values start at zero
+    int create(byte entityKind) {
+        int slot;
+        if (freeCount > 0) {
+            slot = free[--freeCount];
+        } else {
+            if (count == x.length) grow();
+            slot = count++;
+        }
+        x[slot] = y[slot] = prevX[slot] = prevY[slot] = 0;
+        width[slot] = height[slot] = 0;
+        dx[slot] = dy[slot] = 0f;
+        kind[slot] = entityKind;
+        flags[slot] = ACTIVE;
+        return slot;
+    }
+    
+    // gives the slot back, the systems skip it from now on
+    void destroy(int slot) {
+        if ((flags[slot] & ACTIVE) == 0)
+            throw new Error("Entity already destroyed");
+        flags[slot] = 0;
+        free[freeCount++] = slot;
+    }
+    
+    private void grow() {
+        int capacity = x.length * 2;
+        x = Arrays.copyOf(x, capacity);
+        y = Arrays.copyOf(y, capacity);
+        prevX = Arrays.copyOf(prevX, capacity);
+        prevY = Arrays.copyOf(prevY, capacity);
+        width = Arrays.copyOf(width, capacity);
+        height = Arrays.copyOf(height, capacity);
+        flags = Arrays.copyOf(flags, capacity);
+        dx = Arrays.copyOf(dx, capacity);
+        dy = Arrays.copyOf(dy, capacity);
+        kind = Arrays.copyOf(kind, capacity);
+        free = Arrays.copyOf(free, capacity);
+    }
+}
+
+
+/*
+    systems are the per-tick work that applies to every entity, written as
+    plain loops over the EntityStore arrays
+*/
+
+final class Systems {
+    
+    private Systems() { }
+    
+    // moves every MOVING entity by its velocity, remembering where it was.
+    // entities placed this tick (FRESH) stay put until the next one
+    static void move(EntityStore store) {
+        int[] x = store.x, y = store.y, prevX = store.prevX, prevY = store.prevY;
+        int[] flags = store.flags;
+        float[] dx = store.dx, dy = store.dy;
+        for (int i = 0, n = store.count; i < n; i++) {
+            int f = flags[i];
+            if ((f & EntityStore.MOVING) == 0) continue;
+            if ((f & EntityStore.FRESH) != 0) {
+                flags[i] = f & ~EntityStore.FRESH;
+                continue;
+            }
+            prevX[i] = x[i];
+            prevY[i] = y[i];
+            x[i] += dx[i];
+            y[i] += dy[i];
+        }
+    }
+}
+
+
+/*
+    a CollisionKernel tests points against many rectangles at once, straight
+    over the EntityStore arrays, and sets a bit in a mask, a long per 64
+    rectangles, for every one it hits. the test is exactly the one
+    Player.hit() does: the point is inside the rectangle, edges included,
+    and the block is still functional. the caller picks which hit counts
+    and clears that block's flag, as hit() would. load() picks the SIMD kernel when the Vector API
+    module is present (compile and run vector/VectorCollisionKernel.java
+    with --add-modules jdk.incubator.vector), the scalar one otherwise
+*/
+
+class CollisionKernel {
+    
+    private static CollisionKernel loaded;
+    
+    static synchronized CollisionKernel load() {
+        if (loaded != null) return loaded;
+        loaded = new CollisionKernel();
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+            try {
+                loaded = (CollisionKernel) Class.forName("VectorCollisionKernel")
+                        .getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException | LinkageError e) {
+                // the SIMD kernel wasn't built, the scalar one will do
+            }
+        }
+        return loaded;
+    }
+    
+    // sets bit i of mask when the point hits rectangle i and clears it when
+    // it doesn't, for every i in [from, to). returns whether any was hit
+    boolean hits(int px, int py, int[] x, int[] y, int[] width, int[] height,
+            int[] flags, int from, int to, long[] mask) {
+        boolean any = false;
+        for (int i = from; i < to; i++) {
+            if ((flags[i] & EntityStore.FUNCTIONAL) != 0 
+                    && px >= x[i] && px <= x[i] + width[i]
+                    && py >= y[i] && py <= y[i] + height[i]) {
+                mask[i >>> 6] |= 1L << i;
+                any = true;
+            } else {
+                mask[i >>> 6] &= ~(1L << i);
+            }
+        }
+        return any;
+    }
+    
+    // clears the bits of mask in [from, to), a word at a time
+    static void clear(long[] mask, int from, int to) {
+        while (from < to) {
+            int word = from >>> 6, end = Math.min(to, (word + 1) << 6);
+            mask[word] &= ~((-1L << from) & (-1L >>> (64 - (end - (word << 6)))));
+            from = end;
+        }
+    }
+    
+    // the first set bit of mask in [from, to), or -1
+    static int firstSet(long[] mask, int from, int to) {
+        if (from >= to) return -1;
+        int word = from >>> 6;
+        long bits = mask[word] & (-1L << from);
+        while (bits == 0) {
+            if (++word << 6 >= to) return -1;
+            bits = mask[word];
+        }
+        int i = (word << 6) + Long.numberOfTrailingZeros(bits);
+        return (i < to) ? i : -1;
+    }
+    
+    String name() {
+        return "scalar";
+    }
+}
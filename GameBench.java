@@ -0,0 +1,283 @@
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+
+/*
+    micro benchmarks for the hot paths of the game: a whole tick, collision,
+    updatePairs, rellocate, the BlockQueue and rendering a frame into an
+    offscreen image. collisionBatch uses the SIMD kernel when run with
+    --add-modules jdk.incubator.vector. every benchmark runs for each
+    combination of the parameters, with warmup iterations first.
+
+    allocation profiling (the equivalent of JMH's -prof gc) is on by default:
+    bytes allocated per operation come from the benchmark thread's allocation
+    counter, and the number of collections and time spent in GC are the
+    deltas of the GC MXBeans over the measured iterations.
+
+    usage: java -Djava.awt.headless=true GameBench [options]
+        --pairs 6,100,1000     pairs of blocks in the world
+        --block-width 60       width of the blocks
+        --size 800x600         size of the world
+        --only name,name       run only these benchmarks
+        --warmup 3 --iterations 5 --time 1000   iterations and their length in ms
+        --no-gc                turn allocation profiling off
+        --csv file             also write the results as csv, to compare releases
+*/
+
+public final class GameBench {
+
+    // one combination of the benchmark parameters
+    static final class Params {
+        final int pairs, blockWidth, width, height;
+
+        Params(int pairs, int blockWidth, int width, int height) {
+            this.pairs = pairs;
+            this.blockWidth = blockWidth;
+            this.width = width;
+            this.height = height;
+        }
+
+        // a world that never ends, so the tick benchmarks keep doing the
+        // same work however many collisions happen
+        GameConfig config() {
+            GameConfig config = new GameConfig(width, height);
+            config.pairs = pairs;
+            config.blockWidth = blockWidth;
+            config.lives = Integer.MAX_VALUE;
+            return config;
+        }
+
+        GameHelper world() {
+            return new GameHelper(config(), ScoreBoard.NONE);
+        }
+    }
+
+    // a benchmark builds the state it needs and returns one operation,
+    // whose result is consumed so the JIT can't drop the work
+    static final class Benchmark {
+        final String name;
+        final Function<Params, LongSupplier> setup;
+
+        Benchmark(String name, Function<Params, LongSupplier> setup) {
+            this.name = name;
+            this.setup = setup;
+        }
+    }
+
+    static final List<Benchmark> BENCHMARKS = List.of(
+        new Benchmark("updateAll", p -> {
+            GameHelper world = p.world();
+            return () -> { world.updateAll(); return world.getScore(); };
+        }),
+        new Benchmark("collision", p -> {
+            GameHelper world = p.world();
+            return () -> world.collision() ? 1 : 0;
+        }),
+        new Benchmark("collisionBatch", p -> {
+            GameConfig config = p.config();
+            config.batchCollision = true;
+            GameHelper world = new GameHelper(config, ScoreBoard.NONE);
+            return () -> world.collision() ? 1 : 0;
+        }),
+        new Benchmark("updatePairs", p -> {
+            GameHelper world = p.world();
+            return () -> { world.updatePairs(); return world.getScore(); };
+        }),
+        new Benchmark("rellocate", p -> {
+            GameHelper world = p.world();
+            return () -> { world.rellocate(); return 1; };
+        }),
+        new Benchmark("queueCycle", p -> {
+            // a full queue that keeps moving its front block to the rear
+            BlockQueue queue = new BlockQueue(p.pairs * 2);
+            EntityStore store = new EntityStore(p.pairs * 2);
+            for (int i = 0; i < p.pairs * 2; i++)
+                queue.enqueue(new Block(store, i, 0, p.blockWidth, 100));
+            return () -> {
+                Block block = queue.dequeue();
+                queue.enqueue(block);
+                return block.getID();
+            };
+        }),
+        new Benchmark("renderAll", p -> {
+            GameHelper world = p.world();
+            BufferedImage image = new BufferedImage(
+                    p.width, p.height, BufferedImage.TYPE_INT_RGB);
+            Graphics2D gfx = image.createGraphics();
+            return () -> {
+                // what Game.render() draws, into the offscreen image
+                gfx.setColor(Color.MAGENTA);
+                gfx.fillRect(0, 0, p.width, p.height);
+                world.renderAll(gfx);
+                return image.getRGB(p.width / 2, p.height / 2);
+            };
+        })
+    );
+
+    static volatile long sink; // results end up here
+
+    public static void main(String[] args) throws IOException {
+        int[] pairs = { 6, 100, 1000 };
+        int[] blockWidths = { 60 };
+        int[][] sizes = { { 800, 600 } };
+        List<String> only = null;
+        int warmup = 3, iterations = 5;
+        long time = 1000;
+        boolean gc = true;
+        String csv = null;
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--pairs": pairs = ints(args[++i]); break;
+                case "--block-width": blockWidths = ints(args[++i]); break;
+                case "--size": sizes = sizes(args[++i]); break;
+                case "--only": only = List.of(args[++i].split(",")); break;
+                case "--warmup": warmup = Integer.parseInt(args[++i]); break;
+                case "--iterations": iterations = Integer.parseInt(args[++i]); break;
+                case "--time": time = Long.parseLong(args[++i]); break;
+                case "--no-gc": gc = false; break;
+                case "--csv": csv = args[++i]; break;
+                default: throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+
+        List<String> rows = new ArrayList<>();
+        rows.add("benchmark,pairs,blockWidth,width,height,ns/op,error,B/op,gc.count,gc.ms");
+        System.out.printf("%-12s %6s %6s %10s %12s %10s %10s %6s %8s%n", "Benchmark",
+                "pairs", "width", "size", "ns/op", "error", "B/op", "gcs", "gc ms");
+        for (Benchmark bench : BENCHMARKS) {
+            if (only != null && !only.contains(bench.name)) continue;
+            for (int p : pairs) {
+                for (int w : blockWidths) {
+                    for (int[] size : sizes) {
+                        Params params = new Params(p, w, size[0], size[1]);
+                        Result r = measure(bench.setup.apply(params),
+                                warmup, iterations, time, gc);
+                        System.out.printf(Locale.ROOT,
+                                "%-12s %6d %6d %10s %12.2f %10.2f %10s %6s %8s%n",
+                                bench.name, p, w, size[0] + "x" + size[1], r.nsPerOp,
+                                r.error, gc ? String.format(Locale.ROOT, "%.1f", r.bytesPerOp) : "-",
+                                gc ? r.gcCount : "-", gc ? r.gcMillis : "-");
+                        rows.add(String.format(Locale.ROOT, "%s,%d,%d,%d,%d,%.3f,%.3f,%.3f,%d,%d",
+                                bench.name, p, w, size[0], size[1], r.nsPerOp, r.error,
+                                r.bytesPerOp, r.gcCount, r.gcMillis));
+                    }
+                }
+            }
+        }
+        if (csv != null) {
+            try (PrintWriter out = new PrintWriter(csv)) {
+                rows.forEach(out::println);
+            }
+        }
+    }
+
+    static final class Result {
+        double nsPerOp, error, bytesPerOp;
+        long gcCount, gcMillis;
+    }
+
+    static Result measure(LongSupplier op, int warmup, int iterations,
+            long millis, boolean gc) {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        long budget = millis * 1_000_000L;
+
+        // ops are run in batches so reading the clock doesn't cost more than
+        // the op itself. the batch is sized to take about a millisecond
+        int batch = 1;
+        while (batch < (1 << 24) && time(op, batch) < 1_000_000L) batch <<= 1;
+
+        for (int i = 0; i < warmup; i++) iteration(op, batch, budget);
+
+        double[] scores = new double[iterations];
+        long allocated = 0, ops = 0, gcCount = gcCount(), gcMillis = gcMillis();
+        for (int i = 0; i < iterations; i++) {
+            long bytes = gc ? threads.getThreadAllocatedBytes(thread) : 0;
+            long start = System.nanoTime();
+            long done = iteration(op, batch, budget);
+            scores[i] = (double) (System.nanoTime() - start) / done;
+            if (gc) allocated += threads.getThreadAllocatedBytes(thread) - bytes;
+            ops += done;
+        }
+
+        Result r = new Result();
+        double mean = 0;
+        for (double score : scores) mean += score;
+        mean /= iterations;
+        double variance = 0;
+        for (double score : scores) variance += (score - mean) * (score - mean);
+        r.nsPerOp = mean;
+        // half width of a rough 99.9% interval, like JMH reports
+        r.error = (iterations > 1)
+                ? 3.29 * Math.sqrt(variance / (iterations - 1)) / Math.sqrt(iterations) : 0;
+        r.bytesPerOp = (double) allocated / ops;
+        r.gcCount = gcCount() - gcCount;
+        r.gcMillis = gcMillis() - gcMillis;
+        return r;
+    }
+
+    // runs whole batches until the time is up, returns the number of ops
+    static long iteration(LongSupplier op, int batch, long budget) {
+        long start = System.nanoTime(), ops = 0;
+        do {
+            run(op, batch);
+            ops += batch;
+        } while (System.nanoTime() - start < budget);
+        return ops;
+    }
+
+    static long time(LongSupplier op, int batch) {
+        long start = System.nanoTime();
+        run(op, batch);
+        return System.nanoTime() - start;
+    }
+
+    static void run(LongSupplier op, int batch) {
+        long acc = 0;
+        for (int i = 0; i < batch; i++) acc += op.getAsLong();
+        sink = acc;
+    }
+
+    static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans())
+            count += Math.max(0, bean.getCollectionCount());
+        return count;
+    }
+
+    static long gcMillis() {
+        long millis = 0;
+        for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans())
+            millis += Math.max(0, bean.getCollectionTime());
+        return millis;
+    }
+
+    static int[] ints(String list) {
+        String[] parts = list.split(",");
+        int[] values = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) values[i] = Integer.parseInt(parts[i].trim());
+        return values;
+    }
+
+    static int[][] sizes(String list) {
+        String[] parts = list.split(",");
+        int[][] values = new int[parts.length][];
+        for (int i = 0; i < parts.length; i++) {
+            String[] wh = parts[i].trim().split("x");
+            values[i] = new int[] { Integer.parseInt(wh[0]), Integer.parseInt(wh[1]) };
+        }
+        return values;
+    }
+}
@@ -0,0 +1,136 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+
+
+/*
+    the HeadlessEngine runs the game logic without a window, a Canvas or a
+    BufferStrategy. there is no frame rate either, ticks are simulated as
+    fast as the CPU allows, so it can be used on machines with no display.
+
+    usage: java HeadlessEngine [ticks] [input script]
+*/
+
+public final class HeadlessEngine {
+
+    public static void main(String[] args) throws IOException {
+        long ticks = (args.length > 0) ? Long.parseLong(args[0]) : 10_000_000L;
+        ScriptedInput script = (args.length > 1) ? ScriptedInput.load(args[1]) : null;
+        PlayerInput input = (script != null) ? script : PlayerInput.IDLE;
+
+        HeadlessEngine engine = new HeadlessEngine(new GameConfig(), input);
+        // the game ends when the lives run out, so a game that never dodges
+        // is restarted until the requested number of ticks have run
+        long done = 0, start = System.nanoTime();
+        while (done < ticks) {
+            done += engine.run(ticks - done);
+            if (engine.helper().isGameOver()) {
+                // every game counts its ticks from 0, so plays the script
+                // from its start
+                if (script != null) script.reset();
+                engine = new HeadlessEngine(new GameConfig(), input);
+            }
+        }
+        double secs = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%d ticks in %.3f s (%.0f ticks/s)%n",
+                done, secs, done / secs);
+    }
+
+    private final GameHelper helper; // game logic handler
+    private final PlayerInput input; // where the player is steered from
+    private long tick; // number of ticks simulated so far
+
+    HeadlessEngine(GameConfig config, PlayerInput input) {
+        this(new GameHelper(config, ScoreBoard.NONE), input);
+    }
+
+    HeadlessEngine(GameHelper helper, PlayerInput input) {
+        this.helper = helper;
+        this.input = input;
+    }
+
+    // simulates a single tick, the same work Game.update() does
+    void step() {
+        helper.steer(input.poll(tick));
+        helper.updateAll();
+        tick++;
+    }
+
+    // simulates up to the given number of ticks, stopping early when the
+    // game is over. returns how many ticks were simulated
+    long run(long ticks) {
+        long from = tick;
+        while (tick - from < ticks && !helper.isGameOver()) {
+            step();
+        }
+        return tick - from;
+    }
+
+    GameHelper helper() {
+        return helper;
+    }
+
+    long ticks() {
+        return tick;
+    }
+}
+
+
+/*
+    replays pointer positions from a script. every line of the script is
+    "tick x y", meaning the pointer moved to (x, y) on that tick. lines
+    starting with # are ignored and the ticks must be in ascending order
+*/
+
+final class ScriptedInput implements PlayerInput {
+
+    private final long[] ticks; // tick of every scripted move
+    private final long[] moves; // packed pointer position of every move
+    private int next; // index of the next move that hasn't happened yet
+
+    ScriptedInput(long[] ticks, long[] moves) {
+        if (ticks.length != moves.length)
+            throw new IllegalArgumentException("Every tick needs a move");
+        this.ticks = ticks;
+        this.moves = moves;
+    }
+
+    static ScriptedInput load(String file) throws IOException {
+        List<String> lines = Files.readAllLines(Paths.get(file));
+        long[] ticks = new long[lines.size()];
+        long[] moves = new long[lines.size()];
+        int n = 0;
+        for (String line : lines) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) continue;
+            String[] parts = line.split("\\s+");
+            if (parts.length != 3)
+                throw new IOException("Bad script line: " + line);
+            ticks[n] = Long.parseLong(parts[0]);
+            moves[n] = PlayerInput.pack(Integer.parseInt(parts[1]),
+                    Integer.parseInt(parts[2]));
+            if (n > 0 && ticks[n] < ticks[n - 1])
+                throw new IOException("Script ticks out of order: " + line);
+            n++;
+        }
+        return new ScriptedInput(
+                Arrays.copyOf(ticks, n), Arrays.copyOf(moves, n));
+    }
+
+    // plays the script again from its first move, for a new game
+    void reset() {
+        next = 0;
+    }
+
+    @Override
+    public long poll(long tick) {
+        // several moves on the same tick collapse into the last one
+        long move = NONE;
+        while (next < ticks.length && ticks[next] <= tick) {
+            move = moves[next++];
+        }
+        return move;
+    }
+}
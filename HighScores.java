@@ -0,0 +1,389 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+
+/*
+    the leaderboard. every finished game is appended to a log file as a
+    fixed size record with a crc, and the best TOP of them are kept sorted
+    in a memory-mapped index next to it (the log's name with .top added),
+    so asking for the best scores never reads the log.
+
+    record() only queues the result, a background thread appends what has
+    queued up in batches, flushes them to the disk and updates the index,
+    so a game over never waits on the disk. the index remembers how much of
+    the log it covers, opening the store only reads the records after that
+    (and truncates a record torn by a crash), however long the log is.
+    once the log holds twice RETAIN records it is compacted in the
+    background down to the best RETAIN, in the order they were played.
+
+    log layout (big endian):
+        "NGUS" version, then records of
+        crc score ticks seed time
+    where the crc covers the rest of the record, ticks is how long the
+    game lasted, seed the seed of its world and time when it ended
+
+    usage: java HighScores <log> [count]        prints the best scores
+           java HighScores <log> --compact      compacts the log now
+*/
+
+public final class HighScores implements Closeable {
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("usage: java HighScores <log> [count | --compact]");
+            System.exit(2);
+        }
+        try (HighScores scores = new HighScores(Paths.get(args[0]))) {
+            if (args.length > 1 && args[1].equals("--compact")) {
+                scores.compactNow();
+                return;
+            }
+            int count = (args.length > 1) ? Integer.parseInt(args[1]) : 10;
+            System.out.printf("%d games logged%n", scores.logged());
+            for (int rank = 0; rank < Math.min(count, scores.size()); rank++) {
+                Entry entry = scores.top(rank);
+                System.out.printf("%3d. %8d  %8d ticks  seed %d  %tF %<tT%n", rank + 1,
+                        entry.score, entry.ticks, entry.seed, entry.time);
+            }
+        }
+    }
+
+    static final int MAGIC = 0x4E475553; // "NGUS"
+    static final int VERSION = 1;
+    static final int TOP = 100; // entries in the index
+    static final long RETAIN = 1_000_000; // records compaction keeps
+    static final int RECORD = 32; // bytes of a record
+    private static final int LOG_HEADER = 8;
+    // index layout: magic version top count sequence covered, then the
+    // entries best first, laid out like log records without the crc
+    private static final int INDEX_HEADER = 32;
+    private static final int BATCH = 4096; // most records appended at once
+
+    // one finished game
+    static final class Entry {
+        final int score;
+        final long ticks, seed, time;
+
+        Entry(int score, long ticks, long seed, long time) {
+            this.score = score;
+            this.ticks = ticks;
+            this.seed = seed;
+            this.time = time;
+        }
+    }
+
+    // queued to stop the writer, and to have it compact the log now
+    private static final Entry CLOSE = new Entry(0, 0, 0, 0), COMPACT = new Entry(0, 0, 0, 0);
+
+    private final Path path, compacted;
+    private FileChannel log;
+    private final FileChannel indexFile;
+    private final MappedByteBuffer index;
+    private final BlockingQueue<Entry> queue = new ArrayBlockingQueue<>(64 * 1024);
+    private final Thread writer;
+    private final ByteBuffer batch = ByteBuffer.allocateDirect(BATCH * RECORD);
+    private final CRC32 crc = new CRC32();
+    private final AtomicLong dropped = new AtomicLong();
+    private volatile long records; // in the log
+
+    HighScores(Path path) throws IOException {
+        this.path = path;
+        this.compacted = Paths.get(path + ".compact");
+        log = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        if (log.size() < LOG_HEADER) {
+            ByteBuffer header = ByteBuffer.allocate(LOG_HEADER).putInt(MAGIC).putInt(VERSION);
+            log.truncate(0);
+            log.write(header.flip(), 0);
+        } else {
+            ByteBuffer header = ByteBuffer.allocate(LOG_HEADER);
+            log.read(header, 0);
+            if (header.getInt(0) != MAGIC) throw new IOException("Not a high score log");
+            if (header.getInt(4) != VERSION)
+                throw new IOException("Unsupported high score log version " + header.getInt(4));
+        }
+
+        indexFile = FileChannel.open(Paths.get(path + ".top"), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        boolean fresh = indexFile.size() != INDEX_HEADER + (long) TOP * RECORD;
+        index = indexFile.map(FileChannel.MapMode.READ_WRITE, 0, INDEX_HEADER + (long) TOP * RECORD);
+        long covered = index.getLong(24);
+        if (fresh || index.getInt(0) != MAGIC || index.getInt(4) != VERSION
+                || index.getInt(8) != TOP || covered < LOG_HEADER || covered > log.size()
+                || (covered - LOG_HEADER) % RECORD != 0) {
+            // no index, or one of another log: built again from the start
+            index.putInt(0, MAGIC).putInt(4, VERSION).putInt(8, TOP).putInt(12, 0);
+            index.putLong(16, 0);
+            covered = LOG_HEADER;
+        }
+        // only what the index doesn't cover yet is read
+        long end = replay(covered);
+        if (end < log.size()) log.truncate(end); // a torn record at the end
+        index.putLong(24, end);
+        records = (end - LOG_HEADER) / RECORD;
+
+        writer = new Thread(this::write, "high-scores");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    // queues the result of a game, without waiting. any thread may call it,
+    // when the queue is full the result is dropped and counted
+    void record(int score, long ticks, long seed) {
+        if (!queue.offer(new Entry(score, ticks, seed, System.currentTimeMillis())))
+            dropped.incrementAndGet();
+    }
+
+    // queues the result of a game, waiting for room in the queue rather
+    // than dropping it. for bulk loads, never the game thread
+    void add(int score, long ticks, long seed) throws InterruptedException {
+        queue.put(new Entry(score, ticks, seed, System.currentTimeMillis()));
+    }
+
+    // games logged so far, not counting the ones still queued
+    long logged() {
+        return records;
+    }
+
+    long dropped() {
+        return dropped.get();
+    }
+
+    // entries in the index
+    int size() {
+        while (true) {
+            long sequence = index.getLong(16);
+            VarHandle.loadLoadFence();
+            int count = index.getInt(12);
+            VarHandle.loadLoadFence();
+            if ((sequence & 1) == 0 && sequence == index.getLong(16)) return count;
+        }
+    }
+
+    // the entry at the given rank, 0 being the best score. the index may
+    // be changing meanwhile, an entry read half way through is read again
+    Entry top(int rank) {
+        if (rank < 0 || rank >= TOP) throw new IndexOutOfBoundsException(rank);
+        int at = INDEX_HEADER + rank * RECORD;
+        while (true) {
+            long sequence = index.getLong(16);
+            VarHandle.loadLoadFence();
+            int count = index.getInt(12);
+            Entry entry = new Entry(index.getInt(at + 4), index.getLong(at + 8),
+                    index.getLong(at + 16), index.getLong(at + 24));
+            VarHandle.loadLoadFence();
+            if ((sequence & 1) == 0 && sequence == index.getLong(16)) {
+                if (rank >= count) throw new IndexOutOfBoundsException(rank);
+                return entry;
+            }
+        }
+    }
+
+    // the best score so far, or 0 when there is none
+    int best() {
+        return (size() > 0) ? top(0).score : 0;
+    }
+
+    // asks the writer to compact the log, whatever its length
+    void compactNow() {
+        while (!queue.offer(COMPACT)) Thread.onSpinWait();
+    }
+
+    // writes whatever is still queued and closes the files
+    @Override
+    public void close() throws IOException {
+        while (!queue.offer(CLOSE)) Thread.onSpinWait();
+        try { writer.join(); }
+        catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+        index.force();
+        indexFile.close();
+        log.close();
+    }
+
+    private void write() {
+        List<Entry> entries = new ArrayList<>(BATCH);
+        boolean closing = false;
+        while (!closing) {
+            try {
+                Entry first = queue.poll(1, TimeUnit.SECONDS);
+                if (first != null) {
+                    entries.add(first);
+                    queue.drainTo(entries, BATCH - 1);
+                }
+            } catch (InterruptedException e) {
+                // nothing interrupts the writer
+            }
+            closing = entries.remove(CLOSE);
+            boolean compactNow = entries.remove(COMPACT);
+            try {
+                if (!entries.isEmpty()) append(entries);
+                if (compactNow || records >= 2 * RETAIN) {
+                    compact(Math.min(RETAIN, records));
+                }
+            } catch (IOException e) {
+                System.err.println("Couldn't log the high scores: " + e);
+            }
+            entries.clear();
+        }
+    }
+
+    // appends the entries in one write, then adds them to the index
+    private void append(List<Entry> entries) throws IOException {
+        batch.clear();
+        for (Entry entry : entries) encode(entry, batch);
+        batch.flip();
+        long at = log.size();
+        while (batch.hasRemaining()) at += log.write(batch, at);
+        log.force(false);
+        for (Entry entry : entries) insert(entry);
+        // the index covers the batch only once it's on the disk
+        index.putLong(24, at);
+        records = (at - LOG_HEADER) / RECORD;
+    }
+
+    private void encode(Entry entry, ByteBuffer out) {
+        int start = out.position();
+        out.putInt(0).putInt(entry.score).putLong(entry.ticks);
+        out.putLong(entry.seed).putLong(entry.time);
+        crc.reset();
+        crc.update(out.duplicate().position(start + 4).limit(start + RECORD));
+        out.putInt(start, (int) crc.getValue());
+    }
+
+    // the record at the buffer's position, or null when its crc is wrong
+    private Entry decode(ByteBuffer in) {
+        int start = in.position();
+        crc.reset();
+        crc.update(in.duplicate().position(start + 4).limit(start + RECORD));
+        Entry entry = new Entry(in.getInt(start + 4), in.getLong(start + 8),
+                in.getLong(start + 16), in.getLong(start + 24));
+        in.position(start + RECORD);
+        return ((int) crc.getValue() == in.getInt(start)) ? entry : null;
+    }
+
+    // adds the records from the offset on to the index, stopping at the
+    // first torn one. returns where the good records end
+    private long replay(long from) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(BATCH * RECORD);
+        long at = from;
+        while (true) {
+            buffer.clear();
+            int read = log.read(buffer, at);
+            if (read < RECORD) return at;
+            buffer.flip();
+            while (buffer.remaining() >= RECORD) {
+                Entry entry = decode(buffer);
+                if (entry == null) return at;
+                insert(entry);
+                at += RECORD;
+            }
+        }
+    }
+
+    // puts the entry in its place in the index, below the entries with the
+    // same score that were there first
+    private void insert(Entry entry) {
+        int count = index.getInt(12);
+        if (count == TOP && entry.score <= index.getInt(INDEX_HEADER + (TOP - 1) * RECORD + 4))
+            return;
+        int lo = 0, hi = count;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (index.getInt(INDEX_HEADER + mid * RECORD + 4) >= entry.score) lo = mid + 1;
+            else hi = mid;
+        }
+        long sequence = index.getLong(16);
+        index.putLong(16, sequence + 1); // odd while changing
+        VarHandle.storeStoreFence();
+        int last = Math.min(count, TOP - 1);
+        for (int i = last; i > lo; i--) {
+            int to = INDEX_HEADER + i * RECORD, from = to - RECORD;
+            for (int b = 0; b < RECORD; b += 8) index.putLong(to + b, index.getLong(from + b));
+        }
+        int at = INDEX_HEADER + lo * RECORD;
+        index.putInt(at, 0).putInt(at + 4, entry.score).putLong(at + 8, entry.ticks);
+        index.putLong(at + 16, entry.seed).putLong(at + 24, entry.time);
+        index.putInt(12, Math.min(count + 1, TOP));
+        VarHandle.storeStoreFence();
+        index.putLong(16, sequence + 2);
+    }
+
+    /*
+        keeps the best retain records, in the order they were logged. only
+        the scores are held in memory to find the lowest score that makes
+        it, then the records are copied over into a new log which replaces
+        the old one in one atomic move. the index is unchanged, its entries
+        are all among the ones kept
+    */
+
+    private void compact(long retain) throws IOException {
+        long total = records;
+        int[] scores = new int[(int) total];
+        ByteBuffer buffer = ByteBuffer.allocateDirect(BATCH * RECORD);
+        for (long i = 0; i < total; ) {
+            buffer.clear();
+            log.read(buffer, LOG_HEADER + i * RECORD);
+            buffer.flip();
+            while (buffer.remaining() >= RECORD && i < total) {
+                scores[(int) i++] = buffer.getInt(buffer.position() + 4);
+                buffer.position(buffer.position() + RECORD);
+            }
+        }
+        int[] sorted = scores.clone();
+        Arrays.sort(sorted);
+        int threshold = (retain > 0) ? sorted[(int) (total - retain)] : Integer.MAX_VALUE;
+        long above = 0;
+        for (int score : scores) if (score > threshold) above++;
+        long ties = retain - above; // records scoring exactly the threshold kept
+
+        try (FileChannel out = FileChannel.open(compacted, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            out.write(ByteBuffer.allocate(LOG_HEADER).putInt(MAGIC).putInt(VERSION).flip());
+            ByteBuffer kept = ByteBuffer.allocateDirect(BATCH * RECORD);
+            for (long i = 0; i < total; ) {
+                buffer.clear();
+                log.read(buffer, LOG_HEADER + i * RECORD);
+                buffer.flip();
+                while (buffer.remaining() >= RECORD && i < total) {
+                    int score = scores[(int) i++];
+                    if (score > threshold || (score == threshold && ties-- > 0)) {
+                        kept.put(buffer.slice(buffer.position(), RECORD));
+                        if (!kept.hasRemaining()) {
+                            kept.flip();
+                            while (kept.hasRemaining()) out.write(kept);
+                            kept.clear();
+                        }
+                    }
+                    buffer.position(buffer.position() + RECORD);
+                }
+            }
+            kept.flip();
+            while (kept.hasRemaining()) out.write(kept);
+            out.force(true);
+        }
+        log.close();
+        Files.move(compacted, path, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        log = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long size = log.size();
+        index.putLong(24, size);
+        records = (size - LOG_HEADER) / RECORD;
+    }
+}
@@ -0,0 +1,161 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+
+/*
+    decides where the passing gap of every pair goes and how tall it is.
+    the layout of pair n is a pure function of the seed and n, so it can be
+    worked out ahead of time on another thread, or on the spot, and always
+    comes out the same. once start()ed, a background thread keeps a few
+    chunks of upcoming layouts in a single-producer single-consumer ring and
+    next() just takes them from there. if the ring ever runs dry next()
+    works the layout out itself, which is cheap, and the producer skips the
+    pairs it missed. without start() every layout is worked out on the spot,
+    which is what the headless games do.
+
+    patterns, from GameConfig:
+        plain        every top block min + [0, height/2) tall, all equally
+                     likely, the gap passingGap high
+        gapDrift     the gap wanders smoothly up and down instead, towards a
+                     new random height every chunk, with a little jitter
+        gapRamp      the gap narrows by a pixel every gapRamp pairs, down
+                     to minPassingGap
+*/
+
+final class LevelGenerator {
+
+    static final int CHUNK = 64; // pairs worked out at a time
+    private static final int AHEAD = 4 * CHUNK; // pairs kept ready
+
+    private final long seed;
+    private final int span, minBlockHeight, passingGap, minPassingGap, gapRamp;
+    private final boolean gapDrift;
+
+    private final long[] ready = new long[AHEAD]; // pair index << 32 | layout
+    private final AtomicLong head = new AtomicLong(); // next to read
+    private final AtomicLong tail = new AtomicLong(); // next to write
+    private final AtomicLong next = new AtomicLong(); // the pair next() gives next
+    private volatile Thread producer;
+
+    LevelGenerator(GameConfig config) {
+        seed = config.seed;
+        span = config.height / 2;
+        minBlockHeight = config.minBlockHeight;
+        passingGap = config.passingGap;
+        minPassingGap = Math.min(config.minPassingGap, config.passingGap);
+        gapRamp = config.gapRamp;
+        gapDrift = config.gapDrift;
+    }
+
+    // the height of the top block of a layout
+    static int topHeight(int layout) {
+        return layout >>> 16;
+    }
+
+    // the height of the passing gap of a layout
+    static int gap(int layout) {
+        return layout & 0xFFFF;
+    }
+
+    // the layout of the next pair. called by the game thread only
+    int next() {
+        long n = next.get();
+        next.lazySet(n + 1);
+        Thread thread = producer;
+        if (thread != null && (n + 1) % CHUNK == 0) LockSupport.unpark(thread);
+        // layouts the producer made before next() went past them are dropped,
+        // the ones for later pairs stay for when next() gets to them
+        long h = head.get();
+        for (long t = tail.get(); h < t; h++) {
+            long entry = ready[(int) (h % AHEAD)];
+            long index = entry >>> 32;
+            if (index > n) break;
+            if (index == n) {
+                head.lazySet(h + 1);
+                return (int) entry;
+            }
+        }
+        head.lazySet(h);
+        return layout(n);
+    }
+
+    // the pair next() gives next
+    long position() {
+        return next.get();
+    }
+
+    // carries on from pair n. layouts made for earlier pairs are dropped
+    // by next() as usual, the ones for later pairs wait for next()
+    void seek(long n) {
+        next.set(n);
+    }
+
+    // starts working out layouts ahead on a background thread
+    void start() {
+        if (producer != null) return;
+        Thread thread = new Thread(this::produce, "level");
+        thread.setDaemon(true);
+        producer = thread;
+        thread.start();
+    }
+
+    void stop() {
+        Thread thread = producer;
+        producer = null;
+        if (thread != null) LockSupport.unpark(thread);
+    }
+
+    private void produce() {
+        long produced = 0;
+        while (producer == Thread.currentThread()) {
+            long t = tail.get();
+            if (t - head.get() > AHEAD - CHUNK) {
+                LockSupport.park(this);
+                continue;
+            }
+            // no use making layouts next() has already gone past
+            long n = Math.max(produced, next.get());
+            for (int i = 0; i < CHUNK; i++) {
+                ready[(int) ((t + i) % AHEAD)] = (n + i) << 32 | (layout(n + i) & 0xFFFFFFFFL);
+            }
+            tail.lazySet(t + CHUNK); // publishes the chunk
+            produced = n + CHUNK;
+        }
+    }
+
+    // the layout of pair n, from nothing but the seed and n
+    int layout(long n) {
+        int top;
+        if (gapDrift) {
+            // between the heights picked for this chunk and the next one
+            long chunk = n / CHUNK;
+            int from = uniform(chunk, 1, span), to = uniform(chunk + 1, 1, span);
+            int along = (int) (n % CHUNK);
+            int jitter = uniform(n, 2, span / 4 + 1) - span / 8;
+            top = from + (to - from) * along / CHUNK + jitter;
+            top = Math.max(0, Math.min(span - 1, top));
+        } else {
+            top = uniform(n, 0, span);
+        }
+        int gap = passingGap;
+        if (gapRamp > 0) gap = (int) Math.max(minPassingGap, passingGap - n / gapRamp);
+        return pack(top + minBlockHeight, gap);
+    }
+
+    private static int pack(int topHeight, int gap) {
+        return topHeight << 16 | gap;
+    }
+
+    // a number in [0, bound) for n, a different one for every stream
+    private int uniform(long n, int stream, int bound) {
+        long z = mix(seed + mix(n * 4 + stream));
+        return (int) (((z >>> 32) * bound) >>> 32);
+    }
+
+    // the finaliser of SplitMix64, spreads every bit of z over the result
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
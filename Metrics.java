@@ -0,0 +1,230 @@
+import java.awt.Color;
+import java.awt.Graphics;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+
+/*
+    timing of the game loop: how long update(), drawing a frame and
+    bfs.show() take, and how many updates the game thread had to run back
+    to back to catch up. every measurement goes into a lock-free histogram,
+    once a second a sampler thread drains them into p50/p99/p999 figures
+    that the overlay draws and that are appended to the metrics file.
+    each tick and frame is also committed as a JFR event, so a flight
+    recording shows them next to GC and JIT activity.
+
+    Metrics.OFF does nothing at all: no clock reads, no events, no
+    allocation on the hot path
+*/
+
+final class Metrics {
+
+    static final Metrics OFF = new Metrics(false, false, null);
+
+    private final boolean enabled;
+    private final boolean overlay; // draw the figures on the screen
+    final LatencyHistogram update = new LatencyHistogram();
+    final LatencyHistogram render = new LatencyHistogram();
+    final LatencyHistogram show = new LatencyHistogram();
+    final LatencyHistogram catchUp = new LatencyHistogram();
+    private final String file; // where the figures are appended, or null
+    private volatile String[] summary = new String[0]; // the latest figures
+
+    Metrics(boolean enabled, boolean overlay, String file) {
+        this.enabled = enabled;
+        this.overlay = overlay;
+        this.file = file;
+    }
+
+    // starts the once a second sampler, which does nothing when disabled
+    Metrics start() {
+        if (!enabled) return this;
+        Thread sampler = new Thread(() -> {
+            while (true) {
+                try { Thread.sleep(1000); }
+                catch (InterruptedException e) { return; }
+                sample();
+            }
+        }, "metrics");
+        sampler.setDaemon(true);
+        sampler.start();
+        return this;
+    }
+
+    boolean enabled() {
+        return enabled;
+    }
+
+    // the clock to pass back to tick() or frame(), 0 when disabled
+    long now() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    // an update that started at start has finished
+    void tick(long start, long tick) {
+        if (!enabled) return;
+        long took = System.nanoTime() - start;
+        update.record(took);
+        TickEvent event = new TickEvent();
+        if (event.shouldCommit()) {
+            event.tick = tick;
+            event.took = took;
+            event.commit();
+        }
+    }
+
+    // a frame started drawing at start, called bfs.show() at shown and was
+    // on the screen at end
+    void frame(long start, long shown, long end) {
+        if (!enabled) return;
+        render.record(shown - start);
+        show.record(end - shown);
+        FrameEvent event = new FrameEvent();
+        if (event.shouldCommit()) {
+            event.render = shown - start;
+            event.show = end - shown;
+            event.commit();
+        }
+    }
+
+    // the game thread ran this many updates back to back
+    void caughtUp(int updates) {
+        if (enabled) catchUp.record(updates);
+    }
+
+    // draws the latest figures in the top left corner
+    void drawOverlay(Graphics gfx) {
+        if (!overlay) return;
+        String[] lines = summary;
+        gfx.setColor(Color.BLACK);
+        for (int i = 0; i < lines.length; i++) {
+            gfx.drawString(lines[i], 8, 36 + i * 14);
+        }
+    }
+
+    // drains the histograms into a new summary
+    void sample() {
+        String[] lines = {
+            line("update", update, true),
+            line("render", render, true),
+            line("show", show, true),
+            line("catch-up", catchUp, false)
+        };
+        summary = lines;
+        if (file == null) return;
+        try (PrintWriter out = new PrintWriter(new FileWriter(file, true))) {
+            out.print(System.currentTimeMillis());
+            for (String line : lines) out.print(" | " + line);
+            out.println();
+        } catch (IOException e) {
+            System.err.println("Couldn't write metrics: " + e);
+        }
+    }
+
+    private static String line(String name, LatencyHistogram histogram, boolean nanos) {
+        long[] counts = histogram.drain();
+        long n = LatencyHistogram.total(counts);
+        if (!nanos) {
+            return String.format(Locale.ROOT, "%s n=%d p50=%d p99=%d max=%d", name, n,
+                    LatencyHistogram.percentile(counts, 50), LatencyHistogram.percentile(counts, 99),
+                    LatencyHistogram.percentile(counts, 100));
+        }
+        return String.format(Locale.ROOT, "%s n=%d p50=%.1fus p99=%.1fus p999=%.1fus", name, n,
+                LatencyHistogram.percentile(counts, 50) / 1e3,
+                LatencyHistogram.percentile(counts, 99) / 1e3,
+                LatencyHistogram.percentile(counts, 99.9) / 1e3);
+    }
+}
+
+
+/*
+    counts values in log-linear buckets: 8 buckets for every power of two,
+    so any value is known to within about 12%. recording is a single atomic
+    increment and the buckets can be drained while others keep recording
+*/
+
+final class LatencyHistogram {
+
+    private static final int SUB_BITS = 3, SUB = 1 << SUB_BITS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(64 * SUB);
+
+    void record(long value) {
+        counts.incrementAndGet(index(Math.max(0, value)));
+    }
+
+    // takes the counts recorded so far and starts again from zero
+    long[] drain() {
+        long[] drained = new long[counts.length()];
+        for (int i = 0; i < drained.length; i++) drained[i] = counts.getAndSet(i, 0);
+        return drained;
+    }
+
+    static int index(long value) {
+        if (value < SUB) return (int) value;
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        return ((shift + 1) << SUB_BITS) + (int) ((value >>> shift) & (SUB - 1));
+    }
+
+    // the smallest value that falls in the bucket
+    static long lowest(int index) {
+        if (index < 2 * SUB) return index;
+        int shift = (index >> SUB_BITS) - 1;
+        return (long) (SUB + (index & (SUB - 1))) << shift;
+    }
+
+    static long total(long[] counts) {
+        long n = 0;
+        for (long count : counts) n += count;
+        return n;
+    }
+
+    // the value below which the given percent of the counts fall
+    static long percentile(long[] counts, double percent) {
+        long n = total(counts);
+        if (n == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(n * percent / 100));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) return lowest(i);
+        }
+        return lowest(counts.length - 1);
+    }
+}
+
+
+@Name("game.Tick")
+@Label("Game Tick")
+@Category("Game")
+class TickEvent extends Event {
+    @Label("Tick")
+    long tick;
+
+    @Label("Update Time")
+    @Timespan
+    long took;
+}
+
+
+@Name("game.Frame")
+@Label("Game Frame")
+@Category("Game")
+class FrameEvent extends Event {
+    @Label("Render Time")
+    @Timespan
+    long render;
+
+    @Label("Show Time")
+    @Timespan
+    long show;
+}
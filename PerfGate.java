@@ -0,0 +1,172 @@
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+
+/*
+    a performance gate to run before merging: plays scripted games without
+    rendering for a fixed number of ticks and fails when a tick allocates
+    or takes longer than the budgets allow, so a change to GameHelper,
+    BlockQueue or Player.hit() that adds garbage or slows the tick down is
+    caught before it stutters on a kiosk.
+
+    every combination of pairs and collision mode is a scenario: a world
+    that never runs out of lives, steered by a bot or an input script. the
+    world ticks --warmup times first so the JIT has compiled the tick, then
+    --ticks more are measured one by one. bytes allocated come from the
+    thread's allocation counter (com.sun.management.ThreadMXBean) around
+    the measured ticks, the percentiles are exact, from every tick's time.
+    the bytes are checked as a total over the measured ticks against the
+    budget times the ticks plus --slack-bytes, a fixed allowance for the
+    JIT, which allocates a few hundred bytes once when it deoptimises.
+
+    exits with 1 when any scenario is over a budget. --report writes a csv
+    line per scenario, to keep next to a release and diff with the next one.
+
+    usage: java -Djava.awt.headless=true PerfGate [options]
+        --pairs 6,100,1000    pairs of blocks in the world
+        --modes plain,swept   collision tests: plain, swept, batch, brute
+        --ticks 100000        ticks measured
+        --warmup 50000        ticks run first, not measured
+        --bot seeker          bot steering the games, see BotHarness
+        --script file         steer with an input script instead, see
+                              HeadlessEngine
+        --seed 1              seed of the worlds
+        --max-bytes 0         bytes a tick may allocate, on average
+        --slack-bytes 1024    bytes the measured ticks may allocate on top
+        --max-p99-us 50       99th percentile of the tick time
+        --report file         write the results as csv
+*/
+
+public final class PerfGate {
+
+    public static void main(String[] args) throws IOException {
+        int[] pairs = { 6, 100, 1000 };
+        String[] modes = { "plain", "swept" };
+        int ticks = 100_000, warmup = 50_000;
+        String bot = "seeker", script = null, report = null;
+        long seed = 1;
+        double maxBytes = 0, maxP99Micros = 50;
+        long slackBytes = 1024;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--pairs": pairs = GameBench.ints(args[++i]); break;
+                case "--modes": modes = args[++i].split(","); break;
+                case "--ticks": ticks = Integer.parseInt(args[++i]); break;
+                case "--warmup": warmup = Integer.parseInt(args[++i]); break;
+                case "--bot": bot = args[++i]; break;
+                case "--script": script = args[++i]; break;
+                case "--seed": seed = Long.parseLong(args[++i]); break;
+                case "--max-bytes": maxBytes = Double.parseDouble(args[++i]); break;
+                case "--slack-bytes": slackBytes = Long.parseLong(args[++i]); break;
+                case "--max-p99-us": maxP99Micros = Double.parseDouble(args[++i]); break;
+                case "--report": report = args[++i]; break;
+                default: throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+
+        List<String> rows = new ArrayList<>();
+        rows.add("pairs,mode,ticks,bytes,bytes/tick,p50.ns,p99.ns,p99.9.ns,max.ns,gc.count,"
+                + "budget.bytes,budget.p99.ns,result");
+        System.out.printf("%6s %6s %10s %9s %9s %9s %9s %4s  %s%n", "pairs", "mode",
+                "B/tick", "p50 us", "p99 us", "p99.9 us", "max us", "gcs", "result");
+        int failed = 0;
+        for (int p : pairs) {
+            for (String mode : modes) {
+                GameConfig config = config(p, mode, seed);
+                GameHelper world = new GameHelper(config, ScoreBoard.NONE);
+                PlayerInput input;
+                if (script != null) {
+                    input = ScriptedInput.load(script);
+                } else {
+                    BotHarness.BotPolicy policy = BotHarness.bot(bot, seed);
+                    input = tick -> policy.steer(world, tick);
+                }
+                Result r = measure(new HeadlessEngine(world, input), warmup, ticks);
+
+                List<String> over = new ArrayList<>();
+                // the slack is the same however many ticks are measured
+                long budgetBytes = (long) (maxBytes * r.ticks) + slackBytes;
+                if (r.allocated > budgetBytes)
+                    over.add(String.format(Locale.ROOT, "%d B > %d (%.1f B/tick)",
+                            r.allocated, budgetBytes, r.bytesPerTick));
+                if (r.p99 > maxP99Micros * 1000)
+                    over.add(String.format(Locale.ROOT, "p99 %.1f us > %.1f", r.p99 / 1000.0, maxP99Micros));
+                String result = over.isEmpty() ? "pass" : "FAIL " + String.join(", ", over);
+                if (!over.isEmpty()) failed++;
+
+                System.out.printf(Locale.ROOT, "%6d %6s %10.1f %9.2f %9.2f %9.2f %9.2f %4d  %s%n",
+                        p, mode, r.bytesPerTick, r.p50 / 1000.0, r.p99 / 1000.0,
+                        r.p999 / 1000.0, r.max / 1000.0, r.gcCount, result);
+                rows.add(String.format(Locale.ROOT, "%d,%s,%d,%d,%.3f,%d,%d,%d,%d,%d,%d,%d,%s",
+                        p, mode, r.ticks, r.allocated, r.bytesPerTick, r.p50, r.p99, r.p999, r.max,
+                        r.gcCount, budgetBytes, (long) (maxP99Micros * 1000),
+                        over.isEmpty() ? "pass" : "fail"));
+            }
+        }
+        if (report != null) {
+            try (PrintWriter out = new PrintWriter(report)) {
+                rows.forEach(out::println);
+            }
+        }
+        System.out.println(failed == 0 ? "all within budget" : failed + " over budget");
+        if (failed > 0) System.exit(1);
+    }
+
+    // a world that never runs out of lives, tested the given way
+    static GameConfig config(int pairs, String mode, long seed) {
+        GameConfig config = new GameConfig();
+        config.pairs = pairs;
+        config.lives = Integer.MAX_VALUE;
+        config.seed = seed;
+        switch (mode) {
+            case "plain": break;
+            case "swept": config.sweptCollision = true; break;
+            case "batch": config.batchCollision = true; break;
+            case "brute": config.bruteForceCollision = true; break;
+            default: throw new IllegalArgumentException("Unknown mode " + mode);
+        }
+        return config;
+    }
+
+    static final class Result {
+        int ticks;
+        long allocated; // bytes, over the measured ticks
+        double bytesPerTick;
+        long p50, p99, p999, max; // ns
+        long gcCount;
+    }
+
+    // runs the warmup ticks, then times every one of the measured ticks
+    static Result measure(HeadlessEngine engine, int warmup, int ticks) {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        for (int i = 0; i < warmup; i++) engine.step();
+
+        long[] times = new long[ticks]; // before counting, it's not the tick's
+        long gcCount = GameBench.gcCount();
+        long bytes = threads.getCurrentThreadAllocatedBytes();
+        for (int i = 0; i < ticks; i++) {
+            long start = System.nanoTime();
+            engine.step();
+            times[i] = System.nanoTime() - start;
+        }
+        long allocated = threads.getCurrentThreadAllocatedBytes() - bytes;
+
+        Result r = new Result();
+        r.ticks = ticks;
+        r.allocated = allocated;
+        r.bytesPerTick = (double) allocated / ticks;
+        r.gcCount = GameBench.gcCount() - gcCount;
+        Arrays.sort(times);
+        r.p50 = BotHarness.rank(times, 50);
+        r.p99 = BotHarness.rank(times, 99);
+        r.p999 = BotHarness.rank(times, 99.9);
+        r.max = times[ticks - 1];
+        return r;
+    }
+}
@@ -0,0 +1,197 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+
+/*
+    a Recording is everything needed to play a session again: the settings
+    and seed of the world, and every pointer move the player made. moves are
+    stored as a compact log, each entry being the number of ticks since the
+    previous move followed by how far the pointer went, all as zigzag
+    varints, so a still pointer costs nothing and a small move a few bytes.
+    the score, lives and number of ticks the session ended with are kept so
+    a replay can check it reached the same result
+
+    file layout (big endian):
+        "NGUR" version
+        width height blockWidth pairs minBlockHeight passingGap lives seed
+        tickRate sweptCollision gapDrift gapRamp minPassingGap
+        ticks score lives
+        length of the input log, input log
+*/
+
+final class Recording {
+
+    static final int MAGIC = 0x4E475552; // "NGUR"
+    static final int VERSION = 3;
+
+    final GameConfig config;
+    long ticks; // ticks the session ran for
+    int score, lives; // what the session ended with
+    byte[] log = new byte[64]; // encoded pointer moves
+    int logLength;
+
+    Recording(GameConfig config) {
+        this.config = config;
+    }
+
+    // the log as the pointer moves of a replay
+    PlayerInput input() {
+        return new RecordedInput(this);
+    }
+
+    // wraps an input source so that every move it produces is logged
+    PlayerInput record(PlayerInput source) {
+        return new PlayerInput() {
+            private long lastTick = -1; // tick of the previous move
+            private int lastX, lastY; // where the pointer was last
+
+            @Override
+            public long poll(long tick) {
+                long move = source.poll(tick);
+                if (move != NONE) {
+                    int x = PlayerInput.x(move), y = PlayerInput.y(move);
+                    writeVarLong(tick - lastTick);
+                    writeVarInt(zigzag(x - lastX));
+                    writeVarInt(zigzag(y - lastY));
+                    lastTick = tick;
+                    lastX = x;
+                    lastY = y;
+                }
+                return move;
+            }
+        };
+    }
+
+    // the session is over, keep what it ended with
+    void finish(long ticks, GameHelper helper) {
+        this.ticks = ticks;
+        this.score = helper.getScore();
+        this.lives = helper.getLives();
+    }
+
+    void write(OutputStream stream) throws IOException {
+        DataOutputStream out = new DataOutputStream(stream);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(config.width);
+        out.writeInt(config.height);
+        out.writeInt(config.blockWidth);
+        out.writeInt(config.pairs);
+        out.writeInt(config.minBlockHeight);
+        out.writeInt(config.passingGap);
+        out.writeInt(config.lives);
+        out.writeLong(config.seed);
+        out.writeInt(config.tickRate);
+        out.writeBoolean(config.sweptCollision);
+        out.writeBoolean(config.gapDrift);
+        out.writeInt(config.gapRamp);
+        out.writeInt(config.minPassingGap);
+        out.writeLong(ticks);
+        out.writeInt(score);
+        out.writeInt(lives);
+        out.writeInt(logLength);
+        out.write(log, 0, logLength);
+        out.flush();
+    }
+
+    static Recording read(InputStream stream) throws IOException {
+        DataInputStream in = new DataInputStream(stream);
+        if (in.readInt() != MAGIC) throw new IOException("Not a recording");
+        int version = in.readInt();
+        if (version != VERSION)
+            throw new IOException("Unsupported recording version " + version);
+        GameConfig config = new GameConfig(in.readInt(), in.readInt());
+        config.blockWidth = in.readInt();
+        config.pairs = in.readInt();
+        config.minBlockHeight = in.readInt();
+        config.passingGap = in.readInt();
+        config.lives = in.readInt();
+        config.seed = in.readLong();
+        config.tickRate = in.readInt();
+        config.sweptCollision = in.readBoolean();
+        config.gapDrift = in.readBoolean();
+        config.gapRamp = in.readInt();
+        config.minPassingGap = in.readInt();
+        Recording recording = new Recording(config);
+        recording.ticks = in.readLong();
+        recording.score = in.readInt();
+        recording.lives = in.readInt();
+        recording.logLength = in.readInt();
+        recording.log = new byte[recording.logLength];
+        in.readFully(recording.log);
+        return recording;
+    }
+
+    static int zigzag(int n) {
+        return (n << 1) ^ (n >> 31);
+    }
+
+    static int unzigzag(int n) {
+        return (n >>> 1) ^ -(n & 1);
+    }
+
+    private void writeVarInt(int n) {
+        writeVarLong(n & 0xFFFFFFFFL);
+    }
+
+    private void writeVarLong(long n) {
+        if (logLength + 10 > log.length) log = Arrays.copyOf(log, log.length * 2);
+        while ((n & ~0x7FL) != 0) {
+            log[logLength++] = (byte) ((n & 0x7F) | 0x80);
+            n >>>= 7;
+        }
+        log[logLength++] = (byte) n;
+    }
+}
+
+
+/*
+    plays the moves of a recording back, tick by tick
+*/
+
+final class RecordedInput implements PlayerInput {
+
+    private final byte[] log;
+    private final int length;
+    private int read; // position in the log
+    private long nextTick; // tick of the next move, or -1 when there's none
+    private int x, y; // the next move
+
+    RecordedInput(Recording recording) {
+        this.log = recording.log;
+        this.length = recording.logLength;
+        advance(-1);
+    }
+
+    @Override
+    public long poll(long tick) {
+        if (nextTick != tick) return NONE;
+        long move = PlayerInput.pack(x, y);
+        advance(tick);
+        return move;
+    }
+
+    // decodes the move after the one made on the given tick
+    private void advance(long tick) {
+        if (read >= length) {
+            nextTick = -1;
+            return;
+        }
+        nextTick = tick + readVarLong();
+        x += Recording.unzigzag((int) readVarLong());
+        y += Recording.unzigzag((int) readVarLong());
+    }
+
+    private long readVarLong() {
+        long n = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = log[read++];
+            n |= (long) (b & 0x7F) << shift;
+            if (b >= 0) return n;
+        }
+    }
+}
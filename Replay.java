@@ -0,0 +1,73 @@
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+
+/*
+    re-simulates recorded sessions without rendering and checks that each
+    one ends with the same score, lives and number of ticks it was recorded
+    with. by default the sessions run as fast as the CPU allows, --realtime
+    paces them at the tick rate they were recorded at instead.
+
+    usage: java Replay [--realtime] recording...
+    exits with 1 if any recording doesn't reproduce
+*/
+
+public final class Replay {
+
+    public static void main(String[] args) throws IOException {
+        boolean realtime = false;
+        int failed = 0, replayed = 0;
+        long ticks = 0, start = System.nanoTime();
+        for (String arg : args) {
+            if (arg.equals("--realtime")) {
+                realtime = true;
+                continue;
+            }
+            Recording recording;
+            try (InputStream in = new BufferedInputStream(Files.newInputStream(Paths.get(arg)))) {
+                recording = Recording.read(in);
+            }
+            HeadlessEngine engine = replay(recording, realtime);
+            GameHelper helper = engine.helper();
+            boolean same = engine.ticks() == recording.ticks
+                    && helper.getScore() == recording.score
+                    && helper.getLives() == recording.lives;
+            if (!same) {
+                failed++;
+                System.out.printf("%s: MISMATCH recorded ticks=%d score=%d lives=%d, "
+                        + "replayed ticks=%d score=%d lives=%d%n", arg,
+                        recording.ticks, recording.score, recording.lives,
+                        engine.ticks(), helper.getScore(), helper.getLives());
+            } else {
+                System.out.printf("%s: ok ticks=%d score=%d lives=%d%n", arg,
+                        engine.ticks(), helper.getScore(), helper.getLives());
+            }
+            replayed++;
+            ticks += engine.ticks();
+        }
+        double secs = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%d replayed, %d mismatched, %d ticks in %.3f s%n",
+                replayed, failed, ticks, secs);
+        if (failed > 0) System.exit(1);
+    }
+
+    // plays the recording until it has run as many ticks as were recorded,
+    // or the game is over
+    static HeadlessEngine replay(Recording recording, boolean realtime) {
+        HeadlessEngine engine = new HeadlessEngine(recording.config, recording.input());
+        if (!realtime) {
+            engine.run(recording.ticks);
+            return engine;
+        }
+        long step = 1_000_000_000L / recording.config.tickRate, next = System.nanoTime();
+        while (engine.ticks() < recording.ticks && !engine.helper().isGameOver()) {
+            engine.step();
+            next += step;
+            FrameScheduler.sleepUntil(next);
+        }
+        return engine;
+    }
+}
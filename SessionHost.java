@@ -0,0 +1,343 @@
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+
+/*
+    runs many games in one process, for kiosks that only send their input
+    over the network. a session is a world of its own, its GameHelper, its
+    EntityStore and LevelGenerator, plus the queue its client's pointer
+    moves arrive in. nothing is shared between sessions but the collision
+    kernel, which keeps no state.
+
+    one scheduler thread keeps the tick rate. every tick it cuts the
+    sessions into batches and a fixed pool of workers, the scheduler among
+    them, claims batches until every session has had its tick. the first
+    batch moves along every round, so no session is always the last one
+    ticked. when a round runs late, up to MAX_CATCH_UP more rounds run
+    back to back, beyond that the ticks are skipped, like
+    FrameScheduler.runUpdates() does for a single game.
+
+    every session counts its own ticks, the ones that finished after the
+    next tick was due (overruns), the ones skipped, how long its ticks
+    took and how late they started, so an unfair or slow session shows up.
+
+    usage: java -Djava.awt.headless=true SessionHost [options]
+        --sessions 500        games to run
+        --threads n           workers, the scheduler included, one per core
+        --batch 16            sessions a worker claims at once
+        --ups 60              ticks a second
+        --seconds 10          how long to run for
+    the clients are simulated by a thread that moves every session's
+    pointer at random, 30 times a second
+*/
+
+public final class SessionHost implements Closeable {
+
+    public static void main(String[] args) throws InterruptedException {
+        int sessions = 500, threads = Runtime.getRuntime().availableProcessors();
+        int batch = 16, ups = 60, seconds = 10;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--sessions": sessions = Integer.parseInt(args[++i]); break;
+                case "--threads": threads = Math.max(1, Integer.parseInt(args[++i])); break;
+                case "--batch": batch = Math.max(1, Integer.parseInt(args[++i])); break;
+                case "--ups": ups = Integer.parseInt(args[++i]); break;
+                case "--seconds": seconds = Integer.parseInt(args[++i]); break;
+                default: throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+
+        SessionHost host = new SessionHost(ups, threads, batch);
+        for (int i = 0; i < sessions; i++) {
+            GameConfig config = new GameConfig();
+            config.tickRate = ups;
+            config.sweptCollision = ups < 60;
+            config.seed = i;
+            host.add(config);
+        }
+        Thread clients = new Thread(() -> simulateClients(host), "clients");
+        clients.setDaemon(true);
+        clients.start();
+        host.start();
+
+        System.out.printf("%d sessions at %d ups on %d threads%n", sessions, ups, threads);
+        for (int s = 0; s < seconds; s++) {
+            Thread.sleep(1000);
+            host.report();
+        }
+        clients.interrupt();
+        host.close();
+
+        // the stats of a session are only written by the worker ticking it,
+        // once the host is closed they can all be read
+        List<Session> all = host.sessions();
+        long ticks = 0, overruns = 0, skipped = 0, games = 0;
+        double fairest = Double.MAX_VALUE, unfairest = 0;
+        for (Session session : all) {
+            ticks += session.ticks;
+            overruns += session.overruns;
+            skipped += session.skipped;
+            games += session.games;
+            double late = session.lateNanos / 1e6 / Math.max(1, session.ticks);
+            fairest = Math.min(fairest, late);
+            unfairest = Math.max(unfairest, late);
+        }
+        System.out.printf(Locale.ROOT, "%d ticks, %d games, %d overruns, %d skipped, "
+                + "mean start lateness per session %.3f..%.3f ms%n", ticks, games, overruns,
+                skipped, fairest, unfairest);
+        all.sort(Comparator.comparingLong((Session session) -> session.overruns).reversed()
+                .thenComparing(Comparator.comparingLong((Session session) -> session.worstNanos)
+                .reversed()));
+        System.out.printf("%7s %8s %8s %8s %10s %10s%n", "session", "ticks", "overruns",
+                "skipped", "worst us", "late ms");
+        for (Session session : all.subList(0, Math.min(5, all.size()))) {
+            System.out.printf(Locale.ROOT, "%7d %8d %8d %8d %10d %10.3f%n", session.id,
+                    session.ticks, session.overruns, session.skipped,
+                    session.worstNanos / 1000, session.worstLate / 1e6);
+        }
+    }
+
+    // stands in for the kiosks: every session's pointer wanders up and down
+    private static void simulateClients(SessionHost host) {
+        List<Session> sessions = host.sessions();
+        int[] pointerY = new int[sessions.size()];
+        SplittableRandom random = new SplittableRandom(1);
+        for (int i = 0; i < pointerY.length; i++) pointerY[i] = sessions.get(i).config.height / 2;
+        while (!Thread.currentThread().isInterrupted()) {
+            for (int i = 0; i < pointerY.length; i++) {
+                GameConfig config = sessions.get(i).config;
+                pointerY[i] = Math.max(0, Math.min(config.height - 1,
+                        pointerY[i] + random.nextInt(-24, 25)));
+                sessions.get(i).input.offer(config.width / 2, pointerY[i]);
+            }
+            try { Thread.sleep(33); }
+            catch (InterruptedException e) { return; }
+        }
+    }
+
+    static final int MAX_CATCH_UP = 5; // rounds run back to back at most
+
+    // one game and everything the host knows about it
+    static final class Session {
+        final int id;
+        final GameConfig config; // the session's own, its seed changes every game
+        // filled by the session's client, drained by whichever worker ticks it
+        final MouseInputQueue input = new MouseInputQueue(64);
+        private final SplittableRandom seeds;
+        private GameHelper world;
+        private long tick;
+        // written by the worker ticking the session, one round at a time
+        long ticks, games, overruns, skipped;
+        long busyNanos, worstNanos; // time spent in its ticks
+        long lateNanos, worstLate; // how long after the round was due they started
+
+        Session(int id, GameConfig config) {
+            this.id = id;
+            this.config = config;
+            seeds = new SplittableRandom(config.seed);
+            world = new GameHelper(config, ScoreBoard.NONE);
+        }
+
+        // one tick. a game that is over makes way for the kiosk's next
+        // player, a new world with a new seed
+        void step() {
+            if (world.isGameOver()) {
+                games++;
+                config.seed = seeds.nextLong();
+                world = new GameHelper(config, ScoreBoard.NONE);
+                tick = 0;
+            }
+            world.steer(input.poll(tick++));
+            world.updateAll();
+        }
+
+        GameHelper world() {
+            return world;
+        }
+    }
+
+    // a tick of every session. a new one every round, so a worker waking
+    // up late can't mix up the batches of two
+    private static final class Round {
+        final Session[] sessions;
+        final long due; // when the round was due
+        final int batches, offset; // the batch claimed first is batch offset
+        final AtomicInteger next = new AtomicInteger(); // batches claimed
+        final AtomicInteger remaining; // batches not done yet
+
+        Round(Session[] sessions, long due, int batches, int offset) {
+            this.sessions = sessions;
+            this.due = due;
+            this.batches = batches;
+            this.offset = offset;
+            remaining = new AtomicInteger(batches);
+        }
+    }
+
+    private final long stepNanos;
+    private final int batch;
+    private final Thread scheduler;
+    private final Thread[] workers;
+    private volatile Session[] sessions = new Session[0];
+    private int nextId;
+    private volatile boolean running;
+
+    private volatile Round round; // the latest, workers claim its batches
+
+    // host wide, read by report() while running
+    private final AtomicLong rounds = new AtomicLong(), lateRounds = new AtomicLong();
+    private final AtomicLong skippedRounds = new AtomicLong(), ticked = new AtomicLong();
+    private final LatencyHistogram tickTimes = new LatencyHistogram();
+    private final LatencyHistogram lateness = new LatencyHistogram();
+    private final LatencyHistogram roundTimes = new LatencyHistogram();
+
+    SessionHost(int ups, int threads, int batch) {
+        this.stepNanos = 1_000_000_000L / ups;
+        this.batch = batch;
+        scheduler = new Thread(this::schedule, "host");
+        workers = new Thread[threads - 1];
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new Thread(this::work, "host-" + i);
+            workers[i].setDaemon(true);
+        }
+    }
+
+    // adds a session for a game with the given settings. it gets its
+    // first tick in the next round
+    synchronized Session add(GameConfig config) {
+        Session[] old = sessions;
+        Session session = new Session(nextId++, config);
+        Session[] grown = Arrays.copyOf(old, old.length + 1);
+        grown[old.length] = session;
+        sessions = grown;
+        return session;
+    }
+
+    // takes a session off the host, it is not ticked after this round
+    synchronized void remove(Session session) {
+        List<Session> kept = new ArrayList<>(Arrays.asList(sessions));
+        kept.remove(session);
+        sessions = kept.toArray(new Session[0]);
+    }
+
+    List<Session> sessions() {
+        return new ArrayList<>(Arrays.asList(sessions));
+    }
+
+    SessionHost start() {
+        running = true;
+        for (Thread worker : workers) worker.start();
+        scheduler.start();
+        return this;
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        try { scheduler.join(); }
+        catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+        for (Thread worker : workers) LockSupport.unpark(worker);
+    }
+
+    // prints what happened since the last report
+    void report() {
+        long[] ticks = tickTimes.drain(), late = lateness.drain(), roundNanos = roundTimes.drain();
+        System.out.printf(Locale.ROOT, "%d rounds (%d late, %d skipped), %d ticks, "
+                + "tick p50 %d us p99 %d us, start late p99 %.2f ms, round p99 %.2f ms%n",
+                rounds.getAndSet(0), lateRounds.getAndSet(0), skippedRounds.getAndSet(0),
+                ticked.getAndSet(0),
+                LatencyHistogram.percentile(ticks, 50) / 1000,
+                LatencyHistogram.percentile(ticks, 99) / 1000,
+                LatencyHistogram.percentile(late, 99) / 1e6,
+                LatencyHistogram.percentile(roundNanos, 99) / 1e6);
+    }
+
+    // the scheduler: a round of ticks every stepNanos, catching up a few
+    // rounds when behind and skipping the rest
+    private void schedule() {
+        long next = System.nanoTime();
+        long offset = 0;
+        while (running) {
+            FrameScheduler.sleepUntil(next);
+            int caughtUp = 0;
+            long now = System.nanoTime();
+            while (now - next >= 0 && caughtUp < MAX_CATCH_UP) {
+                runRound(next, (int) (offset++ % Integer.MAX_VALUE));
+                next += stepNanos;
+                caughtUp++;
+                now = System.nanoTime();
+            }
+            if (now - next >= 0) {
+                // still behind, the missed ticks are dropped for everyone
+                long missed = (now - next) / stepNanos + 1;
+                skippedRounds.addAndGet(missed);
+                for (Session session : sessions) session.skipped += missed;
+                next += missed * stepNanos;
+            }
+        }
+    }
+
+    // ticks every session once, the scheduler working along the workers
+    private void runRound(long due, int offset) {
+        Session[] all = sessions;
+        long start = System.nanoTime();
+        int batches = (all.length + batch - 1) / batch;
+        Round current = new Round(all, due, batches, (batches == 0) ? 0 : offset % batches);
+        round = current;
+        for (Thread worker : workers) LockSupport.unpark(worker);
+        runBatches(current);
+        while (current.remaining.get() > 0) Thread.onSpinWait();
+        long end = System.nanoTime();
+        rounds.incrementAndGet();
+        if (end - due > stepNanos) lateRounds.incrementAndGet();
+        ticked.addAndGet(all.length);
+        roundTimes.record(end - start);
+    }
+
+    private void work() {
+        Round seen = null;
+        while (running) {
+            Round current = round;
+            if (current == seen) {
+                LockSupport.park(this);
+                continue;
+            }
+            seen = current;
+            runBatches(current);
+        }
+    }
+
+    // claims batches of the round until there are none left
+    private void runBatches(Round round) {
+        Session[] all = round.sessions;
+        for (int b; (b = round.next.getAndIncrement()) < round.batches; ) {
+            int from = ((b + round.offset) % round.batches) * batch;
+            int to = Math.min(all.length, from + batch);
+            for (int i = from; i < to; i++) tick(all[i], round.due);
+            round.remaining.decrementAndGet();
+        }
+    }
+
+    private void tick(Session session, long due) {
+        long start = System.nanoTime();
+        session.step();
+        long end = System.nanoTime(), took = end - start, late = start - due;
+        session.ticks++;
+        session.busyNanos += took;
+        session.worstNanos = Math.max(session.worstNanos, took);
+        session.lateNanos += late;
+        session.worstLate = Math.max(session.worstLate, late);
+        // the session's tick ended after its next one was due
+        if (end - due > stepNanos) session.overruns++;
+        tickTimes.record(took);
+        lateness.record(late);
+    }
+}
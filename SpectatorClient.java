@@ -0,0 +1,131 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+
+/*
+    a stand-in for a wall of spectator displays: opens many connections to
+    a SpectatorServer from one thread and rebuilds the world from the
+    frames each one gets, without drawing it. some of them can be made
+    slow, reading only a few times a second, to see the server resync them
+    instead of buffering for them. prints what came in every second.
+
+    usage: java -Djava.awt.headless=true SpectatorClient [options]
+        --host localhost --port 7777
+        --clients 100     connections to open
+        --slow 0          how many of them only read every 250 ms
+        --seconds 10      how long to watch for
+*/
+
+public final class SpectatorClient {
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        String host = "localhost";
+        int port = 7777, clients = 100, slow = 0, seconds = 10;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--host": host = args[++i]; break;
+                case "--port": port = Integer.parseInt(args[++i]); break;
+                case "--clients": clients = Integer.parseInt(args[++i]); break;
+                case "--slow": slow = Integer.parseInt(args[++i]); break;
+                case "--seconds": seconds = Integer.parseInt(args[++i]); break;
+                default: throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+
+        Selector selector = Selector.open();
+        List<Connection> connections = new ArrayList<>();
+        for (int i = 0; i < clients; i++) {
+            SocketChannel channel = SocketChannel.open();
+            boolean isSlow = i < slow;
+            // a small receive buffer makes a slow reader push back sooner
+            if (isSlow) channel.setOption(StandardSocketOptions.SO_RCVBUF, 4 * 1024);
+            channel.connect(new InetSocketAddress(host, port));
+            channel.configureBlocking(false);
+            Connection connection = new Connection(channel, isSlow);
+            channel.register(selector, SelectionKey.OP_READ, connection);
+            connections.add(connection);
+        }
+
+        long end = System.nanoTime() + seconds * 1_000_000_000L;
+        long nextReport = System.nanoTime() + 1_000_000_000L, nextSlowRead = 0;
+        while (System.nanoTime() < end) {
+            selector.select(10);
+            selector.selectedKeys().clear();
+            long now = System.nanoTime();
+            boolean slowTurn = now >= nextSlowRead;
+            if (slowTurn) nextSlowRead = now + 250_000_000L;
+            for (Connection connection : connections) {
+                if (!connection.slow || slowTurn) connection.read();
+            }
+            if (now >= nextReport) {
+                nextReport += 1_000_000_000L;
+                report(connections);
+            }
+        }
+        for (Connection connection : connections) connection.channel.close();
+    }
+
+    static void report(List<Connection> connections) {
+        long frames = 0, keys = 0, bytes = 0, ahead = Long.MIN_VALUE, behind = Long.MAX_VALUE;
+        int open = 0;
+        for (Connection c : connections) {
+            frames += c.frames;
+            keys += c.keys;
+            bytes += c.bytes;
+            c.frames = c.keys = c.bytes = 0;
+            if (c.open) open++;
+            if (c.view.config != null) {
+                ahead = Math.max(ahead, c.view.tick);
+                behind = Math.min(behind, c.view.tick);
+            }
+        }
+        System.out.printf(Locale.ROOT, "%d open, %d frames (%d key), %.1f KB, ticks %d..%d%n",
+                open, frames, keys, bytes / 1024.0, behind, ahead);
+    }
+
+    // one spectator: a socket and the world it has rebuilt
+    static final class Connection {
+        final SocketChannel channel;
+        final boolean slow;
+        final ByteBuffer in = ByteBuffer.allocate(64 * 1024);
+        final SpectatorView view = new SpectatorView();
+        long frames, keys, bytes;
+        boolean open = true;
+
+        Connection(SocketChannel channel, boolean slow) {
+            this.channel = channel;
+            this.slow = slow;
+        }
+
+        // reads what has come in and applies every whole frame
+        void read() throws IOException {
+            if (!open) return;
+            int n = channel.read(in);
+            if (n < 0) {
+                open = false;
+                return;
+            }
+            bytes += n;
+            in.flip();
+            while (in.remaining() >= 4 && in.remaining() >= 4 + in.getInt(in.position())) {
+                int length = in.getInt();
+                int end = in.position() + length;
+                byte type = in.get();
+                ByteBuffer payload = in.slice(in.position(), end - in.position());
+                view.apply(type, payload);
+                in.position(end);
+                frames++;
+                if (type == SpectatorServer.KEY) keys++;
+            }
+            in.compact();
+        }
+    }
+}
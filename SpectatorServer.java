@@ -0,0 +1,527 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.invoke.VarHandle;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/*
+    streams a live game to any number of spectators over TCP. every tick
+    the game thread encodes what changed into a frame, and a single NIO
+    thread sends the frames on to every spectator. a frame is
+
+        length type payload
+
+    where length counts the type and payload. a KEY frame is the whole
+    world, encoded as a Checkpoint. a DELTA frame is what changed since the
+    previous frame, see DeltaEncoder. a spectator is always sent a keyframe
+    first, and one goes out every KEY_EVERY ticks for it to pick up from.
+
+    frames go into a ring of FRAMES preallocated slots that the game thread
+    overwrites without ever waiting for the spectators. the server copies
+    frames out of the ring into a buffer per spectator and checks
+    afterwards that the game thread didn't start reusing the slot while it
+    was copying, like a seqlock. a spectator that falls more than MAX_LAG
+    frames behind, because it reads too slowly or its socket is full, skips
+    to the latest keyframe. memory is the ring plus one buffer per
+    spectator, however slow any of them are.
+
+    usage: java -Djava.awt.headless=true SpectatorServer [port] [bot]
+    plays bot games at the game's tick rate and streams them, for testing
+    with SpectatorClient. Game --spectators <port> streams the real game
+*/
+
+public final class SpectatorServer implements Closeable {
+
+    public static void main(String[] args) throws IOException {
+        int port = (args.length > 0) ? Integer.parseInt(args[0]) : 7777;
+        String bot = (args.length > 1) ? args[1] : "seeker";
+        SplittableRandom seeds = new SplittableRandom();
+        GameConfig config = new GameConfig();
+        config.seed = seeds.nextLong();
+        try (SpectatorServer server = new SpectatorServer(port, config)) {
+            server.start();
+            System.out.println("Streaming on port " + port);
+            GameHelper[] world = { new GameHelper(config, ScoreBoard.NONE) };
+            BotHarness.BotPolicy[] policy = { BotHarness.bot(bot, config.seed) };
+            long[] tick = { 0 };
+            new FrameScheduler(config.tickRate, 0, 5).runUpdates(() -> true, () -> {
+                if (world[0].isGameOver()) {
+                    // a new game, which the spectators get a keyframe of
+                    config.seed = seeds.nextLong();
+                    world[0] = new GameHelper(config, ScoreBoard.NONE);
+                    policy[0] = BotHarness.bot(bot, config.seed);
+                    tick[0] = 0;
+                }
+                world[0].steer(policy[0].steer(world[0], tick[0]));
+                world[0].updateAll();
+                server.publish(world[0], ++tick[0]);
+            });
+        }
+    }
+
+    static final byte KEY = 1, DELTA = 2;
+    static final int FRAMES = 256; // frames kept for spectators that are behind
+    static final int KEY_EVERY = 60; // frames between two keyframes
+    static final int MAX_LAG = FRAMES - 2 * KEY_EVERY; // before a resync
+
+    private final ServerSocketChannel server;
+    private final Selector selector;
+    private final Thread thread;
+    private final ByteBuffer[] frames = new ByteBuffer[FRAMES];
+    private final int frameSize; // the largest a frame can be
+    private final DeltaEncoder encoder;
+    private final AtomicLong writing = new AtomicLong(-1); // frame being written
+    private final AtomicLong published = new AtomicLong(-1); // newest finished frame
+    private volatile long latestKey = -1; // newest keyframe
+    private long lastKey = -1; // the same, for the game thread
+    private final List<Spectator> spectators = new ArrayList<>(); // server thread only
+    private final ByteBuffer discard = ByteBuffer.allocateDirect(256);
+    private final AtomicLong resyncs = new AtomicLong();
+
+    SpectatorServer(int port, GameConfig config) throws IOException {
+        frameSize = 5 + Math.max(Checkpoint.size(config), DeltaEncoder.maxSize(config));
+        for (int i = 0; i < FRAMES; i++) frames[i] = ByteBuffer.allocateDirect(frameSize);
+        encoder = new DeltaEncoder(config);
+        selector = Selector.open();
+        server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(port));
+        server.configureBlocking(false);
+        server.register(selector, SelectionKey.OP_ACCEPT);
+        thread = new Thread(this::serve, "spectators");
+        thread.setDaemon(true);
+    }
+
+    SpectatorServer start() {
+        thread.start();
+        return this;
+    }
+
+    int port() {
+        return server.socket().getLocalPort();
+    }
+
+    // spectators sent back to a keyframe because they fell behind
+    long resyncs() {
+        return resyncs.get();
+    }
+
+    // encodes the tick that just ran into the next frame. called by the
+    // game thread after each update, it never blocks and allocates nothing
+    void publish(GameHelper world, long tick) {
+        long sequence = published.get() + 1;
+        boolean key = encoder.needsKey(world) || sequence - lastKey >= KEY_EVERY;
+        writing.set(sequence);
+        // the new bytes mustn't be seen before the slot is marked as taken
+        VarHandle.storeStoreFence();
+        ByteBuffer frame = frames[(int) (sequence % FRAMES)];
+        frame.clear().position(5);
+        if (key) encoder.key(world, tick, frame);
+        else encoder.delta(world, tick, frame);
+        frame.putInt(0, frame.position() - 4).put(4, key ? KEY : DELTA);
+        published.set(sequence);
+        if (key) {
+            lastKey = sequence;
+            latestKey = sequence;
+        }
+        selector.wakeup();
+    }
+
+    @Override
+    public void close() throws IOException {
+        selector.close();
+        server.close();
+    }
+
+    // a connected spectator
+    private static final class Spectator {
+        final SocketChannel channel;
+        final SelectionKey key;
+        final ByteBuffer pending; // frames copied out of the ring, being sent
+        long next = -1; // frame to copy next, -1 until it gets a keyframe
+
+        Spectator(SocketChannel channel, SelectionKey key, int size) {
+            this.channel = channel;
+            this.key = key;
+            this.pending = ByteBuffer.allocateDirect(size);
+            pending.flip();
+        }
+    }
+
+    private void serve() {
+        try {
+            while (selector.isOpen()) {
+                selector.select();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) continue;
+                    if (key.isAcceptable()) accept();
+                    else if (key.isReadable()) drain((Spectator) key.attachment());
+                }
+                for (int i = spectators.size() - 1; i >= 0; i--) send(spectators.get(i));
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            // closed
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = server.accept()) != null) {
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            // keeps what the kernel buffers for a slow spectator small, it
+            // falls behind in the ring instead
+            channel.setOption(StandardSocketOptions.SO_SNDBUF, 64 * 1024);
+            SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+            Spectator spectator = new Spectator(channel, key, Math.max(frameSize, 16 * 1024));
+            key.attach(spectator);
+            spectators.add(spectator);
+        }
+    }
+
+    // spectators don't send anything, reading only notices them leaving
+    private void drain(Spectator spectator) {
+        try {
+            discard.clear();
+            if (spectator.channel.read(discard) < 0) drop(spectator);
+        } catch (IOException e) {
+            drop(spectator);
+        }
+    }
+
+    private void drop(Spectator spectator) {
+        spectators.remove(spectator);
+        spectator.key.cancel();
+        try { spectator.channel.close(); }
+        catch (IOException e) { }
+    }
+
+    // sends the spectator as many frames as its socket takes
+    private void send(Spectator spectator) {
+        try {
+            while (true) {
+                if (spectator.pending.hasRemaining()) {
+                    spectator.channel.write(spectator.pending);
+                    if (spectator.pending.hasRemaining()) {
+                        // the socket is full, carry on when it's writable
+                        spectator.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                        return;
+                    }
+                }
+                spectator.pending.clear();
+                fill(spectator);
+                spectator.pending.flip();
+                if (!spectator.pending.hasRemaining()) {
+                    spectator.key.interestOps(SelectionKey.OP_READ);
+                    return;
+                }
+            }
+        } catch (IOException e) {
+            drop(spectator);
+        }
+    }
+
+    // copies the frames the spectator is due into its buffer, while they fit
+    private void fill(Spectator spectator) {
+        ByteBuffer pending = spectator.pending;
+        while (true) {
+            long newest = published.get();
+            if (spectator.next < 0 || newest - spectator.next >= MAX_LAG) {
+                long key = latestKey;
+                if (key < 0) return;
+                if (spectator.next >= 0) resyncs.incrementAndGet();
+                spectator.next = key;
+            }
+            if (spectator.next > newest) return;
+            ByteBuffer frame = frames[(int) (spectator.next % FRAMES)];
+            int length = frame.getInt(0) + 4;
+            boolean torn = length < 5 || length > frameSize;
+            // the rest goes with the next write, an empty buffer fits any frame
+            if (!torn && length > pending.remaining()) return;
+            int at = pending.position();
+            if (!torn) pending.put(at, frame, 0, length);
+            VarHandle.loadLoadFence();
+            if (torn || writing.get() >= spectator.next + FRAMES) {
+                // the game thread reused the slot while it was copied
+                spectator.next = -1;
+                continue;
+            }
+            pending.position(at + length);
+            spectator.next++;
+        }
+    }
+}
+
+
+/*
+    encodes what changed in the world since the previous frame, on the
+    game thread. it keeps its own copy of what the spectators were last
+    sent to diff against. a delta is, in zigzag varints:
+
+        ticks since the previous frame
+        flags: which of the following are there
+        SHIFT      how far the blocks that were already there moved
+        RELOCATED  pairs taken off the front and put at the rear, as
+                   rellocate() does, then for each: x from the block before
+                   it, height of the top block, passing gap
+        HIT        blocks hit, then the queue index of each
+        PLAYER     how far the player moved, x then y
+        SCORE      the new score
+        LIVES      the new lives
+
+    a block still rolling along costs nothing beyond the shift, a tick
+    where nothing but that happens is 3 bytes
+*/
+
+final class DeltaEncoder {
+
+    static final int SHIFT = 1, RELOCATED = 2, HIT = 4, PLAYER = 8, SCORE = 16, LIVES = 32;
+
+    private GameHelper world; // the world the copy is of
+    private long tick;
+    private int score, lives, playerX, playerY, newestId;
+    private final int[] ids, x; // of the blocks in queue order
+    private final boolean[] functional;
+
+    DeltaEncoder(GameConfig config) {
+        ids = new int[config.pairs * 2];
+        x = new int[config.pairs * 2];
+        functional = new boolean[config.pairs * 2];
+    }
+
+    // the largest a delta of a world with these settings can be
+    static int maxSize(GameConfig config) {
+        return 10 + 1 + 5 + 5 + config.pairs * 15 + 5 + config.pairs * 2 * 5 + 10 + 10;
+    }
+
+    // a different world, a new game, has to start with a keyframe
+    boolean needsKey(GameHelper world) {
+        return world != this.world;
+    }
+
+    void key(GameHelper world, long tick, ByteBuffer out) {
+        Checkpoint.encode(world, tick, out);
+        remember(world, tick);
+    }
+
+    void delta(GameHelper world, long tick, ByteBuffer out) {
+        int blocks = world.blockCount();
+        // relocated blocks are the ones with ids the copy hasn't seen
+        int relocated = 0;
+        while (relocated < blocks && world.block(blocks - 1 - relocated).getID() > newestId)
+            relocated++;
+        int kept = blocks - relocated;
+        int shift = (kept > 0) ? world.block(0).getX() - x[relocated] : 0;
+        int hits = 0;
+        for (int i = 0; i < kept; i++) {
+            if (functional[i + relocated] && !world.block(i).isFunctional()) hits++;
+        }
+        Player player = world.getPlayer();
+        int flags = 0;
+        if (shift != 0) flags |= SHIFT;
+        if (relocated > 0) flags |= RELOCATED;
+        if (hits > 0) flags |= HIT;
+        if (player.getX() != playerX || player.getY() != playerY) flags |= PLAYER;
+        if (world.getScore() != score) flags |= SCORE;
+        if (world.getLives() != lives) flags |= LIVES;
+
+        putVarLong(out, tick - this.tick);
+        out.put((byte) flags);
+        if (shift != 0) putVarLong(out, Recording.zigzag(shift) & 0xFFFFFFFFL);
+        if (relocated > 0) {
+            putVarLong(out, relocated / 2);
+            for (int i = kept; i < blocks; i += 2) {
+                Block top = world.block(i), bottom = world.block(i + 1);
+                int before = (i > 0) ? world.block(i - 1).getX() : 0;
+                putVarLong(out, Recording.zigzag(top.getX() - before) & 0xFFFFFFFFL);
+                putVarLong(out, top.getHeight());
+                putVarLong(out, bottom.getY() - (top.getY() + top.getHeight()));
+            }
+        }
+        if (hits > 0) {
+            putVarLong(out, hits);
+            for (int i = 0; i < kept; i++) {
+                if (functional[i + relocated] && !world.block(i).isFunctional()) putVarLong(out, i);
+            }
+        }
+        if ((flags & PLAYER) != 0) {
+            putVarLong(out, Recording.zigzag(player.getX() - playerX) & 0xFFFFFFFFL);
+            putVarLong(out, Recording.zigzag(player.getY() - playerY) & 0xFFFFFFFFL);
+        }
+        if ((flags & SCORE) != 0) putVarLong(out, world.getScore());
+        if ((flags & LIVES) != 0) putVarLong(out, world.getLives());
+        remember(world, tick);
+    }
+
+    private void remember(GameHelper world, long tick) {
+        this.world = world;
+        this.tick = tick;
+        score = world.getScore();
+        lives = world.getLives();
+        playerX = world.getPlayer().getX();
+        playerY = world.getPlayer().getY();
+        // ids only grow within a world, so relocated blocks are newer
+        newestId = Integer.MIN_VALUE;
+        for (int i = 0; i < world.blockCount(); i++) {
+            Block block = world.block(i);
+            ids[i] = block.getID();
+            x[i] = block.getX();
+            functional[i] = block.isFunctional();
+            newestId = Math.max(newestId, block.getID());
+        }
+    }
+
+    static void putVarLong(ByteBuffer out, long n) {
+        while ((n & ~0x7FL) != 0) {
+            out.put((byte) ((n & 0x7F) | 0x80));
+            n >>>= 7;
+        }
+        out.put((byte) n);
+    }
+
+    static long getVarLong(ByteBuffer in) {
+        long n = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = in.get();
+            n |= (long) (b & 0x7F) << shift;
+            if (b >= 0) return n;
+        }
+    }
+}
+
+
+/*
+    what a spectator knows of the world, rebuilt from the frames it is
+    sent: the blocks in queue order, the player, the score and lives
+*/
+
+final class SpectatorView {
+
+    GameConfig config; // of the world, from the latest keyframe
+    long tick;
+    int score, lives, playerX, playerY, playerWidth, playerHeight;
+    int blocks;
+    int[] x = new int[0], y = new int[0], width = new int[0], height = new int[0], id = new int[0];
+    boolean[] functional = new boolean[0];
+    private int nextId; // the id the next relocated block gets
+
+    // applies one frame, the type byte and payload
+    void apply(byte type, ByteBuffer payload) {
+        if (type == SpectatorServer.KEY) key(payload);
+        else if (type == SpectatorServer.DELTA) delta(payload);
+        else throw new IllegalArgumentException("Unknown frame type " + type);
+    }
+
+    private void key(ByteBuffer payload) {
+        Checkpoint checkpoint = Checkpoint.decode(payload);
+        GameHelper world = checkpoint.restore(ScoreBoard.NONE);
+        config = checkpoint.config;
+        tick = checkpoint.tick;
+        score = world.getScore();
+        lives = world.getLives();
+        Player player = world.getPlayer();
+        playerX = player.getX();
+        playerY = player.getY();
+        playerWidth = player.getWidth();
+        playerHeight = player.getHeight();
+        blocks = world.blockCount();
+        x = new int[blocks];
+        y = new int[blocks];
+        width = new int[blocks];
+        height = new int[blocks];
+        id = new int[blocks];
+        functional = new boolean[blocks];
+        nextId = 0;
+        for (int i = 0; i < blocks; i++) {
+            Block block = world.block(i);
+            x[i] = block.getX();
+            y[i] = block.getY();
+            width[i] = block.getWidth();
+            height[i] = block.getHeight();
+            id[i] = block.getID();
+            functional[i] = block.isFunctional();
+            nextId = Math.max(nextId, id[i] + 1);
+        }
+    }
+
+    private void delta(ByteBuffer in) {
+        if (config == null) throw new IllegalStateException("A delta before any keyframe");
+        tick += DeltaEncoder.getVarLong(in);
+        int flags = in.get();
+        int shift = ((flags & DeltaEncoder.SHIFT) != 0)
+                ? Recording.unzigzag((int) DeltaEncoder.getVarLong(in)) : 0;
+        int relocated = ((flags & DeltaEncoder.RELOCATED) != 0)
+                ? 2 * (int) DeltaEncoder.getVarLong(in) : 0;
+        // the front pairs go, the rest move along and the pairs come back
+        // at the rear
+        int kept = blocks - relocated;
+        System.arraycopy(x, relocated, x, 0, kept);
+        System.arraycopy(y, relocated, y, 0, kept);
+        System.arraycopy(width, relocated, width, 0, kept);
+        System.arraycopy(height, relocated, height, 0, kept);
+        System.arraycopy(id, relocated, id, 0, kept);
+        System.arraycopy(functional, relocated, functional, 0, kept);
+        for (int i = 0; i < kept; i++) x[i] += shift;
+        for (int i = kept; i < blocks; i += 2) {
+            int before = (i > 0) ? x[i - 1] : 0;
+            int at = before + Recording.unzigzag((int) DeltaEncoder.getVarLong(in));
+            int topHeight = (int) DeltaEncoder.getVarLong(in);
+            int gap = (int) DeltaEncoder.getVarLong(in);
+            // the same pair rellocate() makes
+            int bottomY = topHeight - Block.OFF_SET + gap;
+            set(i, at, -Block.OFF_SET, topHeight);
+            set(i + 1, at, bottomY, config.height + Block.OFF_SET - bottomY);
+        }
+        if ((flags & DeltaEncoder.HIT) != 0) {
+            for (int n = (int) DeltaEncoder.getVarLong(in); n > 0; n--)
+                functional[(int) DeltaEncoder.getVarLong(in)] = false;
+        }
+        if ((flags & DeltaEncoder.PLAYER) != 0) {
+            playerX += Recording.unzigzag((int) DeltaEncoder.getVarLong(in));
+            playerY += Recording.unzigzag((int) DeltaEncoder.getVarLong(in));
+        }
+        if ((flags & DeltaEncoder.SCORE) != 0) score = (int) DeltaEncoder.getVarLong(in);
+        if ((flags & DeltaEncoder.LIVES) != 0) lives = (int) DeltaEncoder.getVarLong(in);
+    }
+
+    private void set(int i, int x, int y, int height) {
+        this.x[i] = x;
+        this.y[i] = y;
+        this.width[i] = config.blockWidth;
+        this.height[i] = height;
+        this.id[i] = nextId++;
+        this.functional[i] = true;
+    }
+
+    // a hash of everything the view holds, to compare views by
+    int checksum() {
+        int hash = Long.hashCode(tick);
+        hash = 31 * hash + score;
+        hash = 31 * hash + lives;
+        hash = 31 * hash + playerX;
+        hash = 31 * hash + playerY;
+        for (int i = 0; i < blocks; i++) {
+            hash = 31 * hash + x[i];
+            hash = 31 * hash + y[i];
+            hash = 31 * hash + width[i];
+            hash = 31 * hash + height[i];
+            hash = 31 * hash + id[i];
+            hash = 31 * hash + (functional[i] ? 1 : 0);
+        }
+        return hash;
+    }
+}
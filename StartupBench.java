@@ -0,0 +1,122 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+
+/*
+    measures how long the game takes from launching the JVM to showing its
+    first frame, which is what a kiosk that reboots waits for. every run
+    starts a new JVM with -Dgame.exitAfterFirstFrame=true, which makes the
+    game print when its first frame was shown and exit right after. the
+    time is taken from outside, from starting the process to reading that
+    line, and the game's own figure since its JVM started is reported too.
+
+    with --cds the runs are repeated with a class data sharing archive of
+    everything the game loads up to its first frame. the archive is made
+    first if the file doesn't exist, by a training run with
+    -XX:ArchiveClassesAtExit. the JVM only archives classes loaded from
+    jars, and the archive is only valid for the JDK and the classpath it
+    was made with, so a release packs the classes and makes the archive
+    on the kiosk's JDK:
+        jar cfe game.jar Game *.class
+        java -XX:ArchiveClassesAtExit=game.jsa -Dgame.exitAfterFirstFrame=true -jar game.jar
+    then starts the game with java -XX:SharedArchiveFile=game.jsa -jar game.jar,
+    and this is run with the same classpath: java -cp game.jar StartupBench
+
+    it needs a display, like the game does.
+
+    usage: java StartupBench [--runs 10] [--cds game.jsa] [jvm options...]
+*/
+
+public final class StartupBench {
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int runs = 10;
+        String archive = null;
+        List<String> jvmOptions = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--runs": runs = Integer.parseInt(args[++i]); break;
+                case "--cds": archive = args[++i]; break;
+                default: jvmOptions.add(args[i]);
+            }
+        }
+
+        report("default", measure(jvmOptions, runs));
+        if (archive == null) return;
+        Path path = Paths.get(archive);
+        if (!Files.exists(path)) {
+            List<String> training = new ArrayList<>(jvmOptions);
+            training.add("-XX:ArchiveClassesAtExit=" + archive);
+            launch(training);
+            if (!Files.exists(path)) throw new IOException("No archive was written to " + archive);
+            System.out.printf("made %s, %d KB%n", archive, Files.size(path) / 1024);
+        }
+        List<String> shared = new ArrayList<>(jvmOptions);
+        shared.add("-XX:SharedArchiveFile=" + archive);
+        report("cds", measure(shared, runs));
+    }
+
+    // the launch to first frame times of the runs, from outside and as the
+    // game saw them, in ms
+    private static long[][] measure(List<String> jvmOptions, int runs)
+            throws IOException, InterruptedException {
+        launch(jvmOptions); // warms the disk cache, not counted
+        long[][] times = new long[2][runs];
+        for (int i = 0; i < runs; i++) {
+            long[] run = launch(jvmOptions);
+            times[0][i] = run[0];
+            times[1][i] = run[1];
+        }
+        return times;
+    }
+
+    // starts the game and waits for its first frame. returns the ms from
+    // starting the process to reading the line, and the ms it reported
+    private static long[] launch(List<String> jvmOptions) throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        command.addAll(jvmOptions);
+        command.add("-Dgame.exitAfterFirstFrame=true");
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add("Game");
+        long start = System.nanoTime();
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        long outside = -1, reported = -1;
+        try (BufferedReader out = new BufferedReader(
+                new InputStreamReader(process.getInputStream()))) {
+            for (String line; (line = out.readLine()) != null; ) {
+                if (line.startsWith("first frame after ")) {
+                    outside = (System.nanoTime() - start) / 1_000_000;
+                    reported = Long.parseLong(line.replaceAll("\\D", ""));
+                } else {
+                    System.out.println("  " + line);
+                }
+            }
+        }
+        if (process.waitFor() != 0 || outside < 0)
+            throw new IOException("The game didn't show a frame, exit code " + process.exitValue());
+        return new long[] { outside, reported };
+    }
+
+    private static void report(String name, long[][] times) {
+        System.out.printf(Locale.ROOT, "%-8s launch to first frame %s ms, in the JVM %s ms%n",
+                name, summary(times[0]), summary(times[1]));
+    }
+
+    // min p50 max
+    private static String summary(long[] values) {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return String.format(Locale.ROOT, "min %d p50 %d max %d", sorted[0],
+                BotHarness.rank(sorted, 50), sorted[sorted.length - 1]);
+    }
+}
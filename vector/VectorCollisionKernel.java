@@ -0,0 +1,56 @@
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+
+/*
+    the SIMD CollisionKernel. it tests as many rectangles per instruction as
+    the CPU's widest int vectors hold, and leaves the tail that doesn't fill
+    a vector to the scalar loop. it is kept out of the main sources because
+    the Vector API is still an incubator module:
+
+        javac --add-modules jdk.incubator.vector -cp out -d out vector/VectorCollisionKernel.java
+        java --add-modules jdk.incubator.vector -cp out Game
+
+    without the module CollisionKernel.load() falls back to the scalar kernel
+*/
+
+final class VectorCollisionKernel extends CollisionKernel {
+
+    private static final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_PREFERRED;
+
+    @Override
+    boolean hits(int px, int py, int[] x, int[] y, int[] width, int[] height,
+            int[] flags, int from, int to, long[] mask) {
+        boolean any = false;
+        int i = from;
+        for (int upper = from + SPECIES.loopBound(to - from); i < upper; i += SPECIES.length()) {
+            IntVector left = IntVector.fromArray(SPECIES, x, i);
+            IntVector top = IntVector.fromArray(SPECIES, y, i);
+            VectorMask<Integer> hit = left.compare(VectorOperators.LE, px)
+                    .and(left.add(IntVector.fromArray(SPECIES, width, i))
+                            .compare(VectorOperators.GE, px))
+                    .and(top.compare(VectorOperators.LE, py))
+                    .and(top.add(IntVector.fromArray(SPECIES, height, i))
+                            .compare(VectorOperators.GE, py))
+                    .and(IntVector.fromArray(SPECIES, flags, i)
+                            .and(EntityStore.FUNCTIONAL)
+                            .compare(VectorOperators.NE, 0));
+            // reading the lanes out of the mask boxes it, so the few vectors
+            // with a hit are tested again by the scalar loop, into the mask
+            if (hit.anyTrue()) {
+                super.hits(px, py, x, y, width, height, flags, i, i + SPECIES.length(), mask);
+                any = true;
+            } else {
+                clear(mask, i, i + SPECIES.length());
+            }
+        }
+        return super.hits(px, py, x, y, width, height, flags, i, to, mask) | any;
+    }
+
+    @Override
+    String name() {
+        return "vector " + SPECIES.vectorBitSize() + " bit";
+    }
+}